@@ -1,64 +1,247 @@
-
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
 
 public class Main {
     public static double minSupport = 2;
-    public static List<String> combinationList = new ArrayList<>();
-    public static HashMap<String, Integer> solve = new HashMap<>();
+    public static List<String> itemNames = new ArrayList<>();//Item dictionary, id -> item
+    public static HashMap<String, Integer> itemIds = new HashMap<>();//Item dictionary, item -> id
+    public static HashMap<Itemset, Integer> solve = new HashMap<>();
+    public static int threads = 1;//Workers used for support counting
+    public static int buckets = 1 << 20;//Size of the DHP pair table, 0 turns it off
+    public static int[] pairBuckets;//Counts of the pairs of every transaction hashed into buckets, filled by Make_First
+    public static long memoryBudget = 0;//Bytes the candidates of one level may use, 0 means no limit
+    public static ForkJoinPool pool;
+    public static final List<String> MODES = Arrays.asList("apriori", "eclat", "fpgrowth", "son", "coordinator", "worker", "incremental", "closed", "maximal", "topk", "sample", "sweep", "serve");
 
     public static void main(String[] args) {
 
         String csvFile = args[0];
         double number = Double.parseDouble(args[1]);// get the line that have path, and minsup value
+        String mode = args.length > 2 && !args[2].startsWith("--") ? args[2] : "apriori";//Optional mining engine: apriori, eclat, fpgrowth, son, coordinator, incremental, closed, maximal, topk, sample, sweep or serve
+        if (!MODES.contains(mode)) {
+            System.err.println("Unknown mode " + mode + ", expected one of " + String.join(", ", MODES));
+            System.exit(1);
+        }
+        if (mode.equals("maximal") && Option(args, "confidence", null) != null) {//Maximal itemsets keep no supports of their subsets, so no confidence can be computed
+            System.err.println("--confidence needs the supports of every subset, use closed or apriori instead of maximal");
+            System.exit(1);
+        }
+        threads = Integer.parseInt(Option(args, "threads", "1"));//--threads=N counts every Apriori level on N cores
+        if (threads < 1) {
+            System.err.println("--threads must be at least 1, got " + threads);
+            System.exit(1);
+        }
+        buckets = Integer.parseInt(Option(args, "buckets", String.valueOf(buckets)));//--buckets=N sets the DHP pair table, --buckets=0 turns it off
+        memoryBudget = Long.parseLong(Option(args, "memory", "0")) << 20;//--memory=MB counts a level in prefix batches when its candidates would not fit
 
 
-        List<List<String>> itemList = readCSV(csvFile);//Get the csv file
-        minSupport = itemList.size() * number;
+        int total;//Number of transactions
+        if (mode.equals("son")) {
+            total = SON(csvFile, number, Long.parseLong(Option(args, "chunk", "64")) << 20, solve);//Two passes over the memory-mapped file, --chunk=MB bounds the heap
+            minSupport = total * number;
+        } else if (mode.equals("coordinator")) {
+            total = Coordinator(csvFile, number, Integer.parseInt(Option(args, "workers", "4")), solve);//Shards the file over --workers local worker JVMs
+            minSupport = total * number;
+        } else if (mode.equals("worker")) {
+            Worker(csvFile, Integer.parseInt(Option(args, "port", "0")), Integer.parseInt(Option(args, "shard", "0")), Long.parseLong(Option(args, "from", "0")), Long.parseLong(Option(args, "to", "0")), Long.parseLong(Option(args, "chunk", "64")) << 20);//Started by the coordinator
+            return;
+        } else if (mode.equals("incremental")) {
+            total = Incremental(csvFile, number, Option(args, "state", csvFile + ".state"), Long.parseLong(Option(args, "chunk", "64")) << 20, solve);//Only the lines appended since the last run are scanned, --state=FILE keeps the counts
+            minSupport = total * number;
+        } else {
+            List<int[]> itemList = readCSV(csvFile);//Get the csv file
+            total = itemList.size();
+            minSupport = total * number;
+
+            if (mode.equals("eclat")) {
+                Eclat(itemList, minSupport, solve);//Vertical depth-first mining on tid bitmaps
+            } else if (mode.equals("fpgrowth")) {
+                FP_Growth(itemList, minSupport, solve);//Pattern growth on a prefix tree, no candidates at all
+            } else if (mode.equals("closed")) {
+                Closed(itemList, minSupport, solve);//Only closed itemsets
+            } else if (mode.equals("maximal")) {
+                Maximal(itemList, minSupport, solve);//Only maximal itemsets
+            } else if (mode.equals("sample")) {
+                boolean complete = Toivonen(itemList, number, Double.parseDouble(Option(args, "fraction", "0.1")), Double.parseDouble(Option(args, "lower", "0.8")), Long.parseLong(Option(args, "seed", "1")), solve);//Mine a --fraction sample at --lower times minsup, then verify with one pass
+                System.err.println(complete ? "Sampled result is complete" : "Sampled result may be incomplete: a negative border itemset is frequent, rerun with a lower --lower or a larger --fraction");
+            } else if (mode.equals("serve")) {
+                FP_Growth(itemList, minSupport, solve);
+                Serve(new Lattice(solve, total), Integer.parseInt(Option(args, "port", "7070")));//Answer queries over HTTP until the process is stopped
+                return;
+            } else if (mode.equals("sweep")) {
+                Sweep(itemList, number, args);//Mine once at the lowest --supports value, then answer every threshold from the index
+                return;
+            } else if (mode.equals("topk")) {
+                Top_K(itemList, Integer.parseInt(Option(args, "k", "1000")), Integer.parseInt(Option(args, "minlength", "1")), minSupport, solve);//The --k most frequent itemsets of at least --minlength items, minsup is only a floor
+            } else {
+                Apriori(itemList, minSupport, solve);//Level-wise mining
+            }
+        }
+
+        Print(solve, total, Option(args, "format", "text"), Option(args, "out", null));//--format=binary writes the compact binary layout, --out=FILE writes to a file instead of the console
+
+        String confidence = Option(args, "confidence", null);//--confidence=C also prints the rules, --lift and --leverage filter them further
+        if (confidence != null) {
+            ToIntFunction<int[]> support = mode.equals("closed") ? itemset -> Closed_Support(itemset, solve) : itemset -> solve.getOrDefault(new Itemset(itemset), 0);//X and Y of a closed itemset need not be closed
+            List<Rule> rules = Rules(solve, support, total, Double.parseDouble(confidence), Double.parseDouble(Option(args, "lift", "0")), Double.parseDouble(Option(args, "leverage", "-1")));
+            Print_Rules(rules, total, 0);
+        }
+
+
+    }
+    public static void Print(Map<Itemset, Integer> itemsets, int total, String format, String outFile) {//Itemsets in ascending order of support, ties by item ids so every engine prints the same order
+        int[][] sorted = Sorted(itemsets.keySet());//Lexicographic rank breaks the ties
+        int[] counts = new int[sorted.length];
+        long[] order = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            counts[i] = itemsets.get(new Itemset(sorted[i]));
+            order[i] = (long) counts[i] << 32 | i;
+        }
+        Arrays.sort(order);//Primitive sort on support then rank
 
-        HashMap<String, Integer> firstItemset = Make_First(itemList);//For easy to using, traslate csv file to hashmap
+        System.out.flush();
+        try (ResultWriter writer = new ResultWriter(outFile == null ? ResultWriter.Console() : FileChannel.open(Paths.get(outFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), itemNames)) {
+            if (format.equals("binary")) writer.Binary_Header(total, sorted.length);
+            for (long key : order) {
+                int i = (int) key;
+                if (format.equals("binary")) writer.Binary(sorted[i], counts[i]);
+                else writer.Text(sorted[i], counts[i], total);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void Print_Rules(List<Rule> rules, int total, double minCount) {//Rules whose itemset has at least minCount transactions
+        for (Rule rule : rules) {
+            if (rule.count < minCount) continue;
+            System.out.println(Format_Rule(rule, total));
+        }
+    }
+
+    public static String Format_Rule(Rule rule, int total) {
+        return To_Names(new Itemset(rule.antecedent)) + " => " + To_Names(new Itemset(rule.consequent)) + " " + String.format("%.8f %.8f %.8f %.8f", (double) rule.count/total, rule.confidence, rule.lift, rule.leverage);
+    }
+
+    public static String Option(String[] args, String name, String fallback) {//Options are given as --name=value after the minsup value
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--" + name + "=")) return args[i].substring(name.length() + 3);
+        }
+        return fallback;
+    }
+
+    public static ForkJoinPool Pool() {//Shared pool of the --threads workers
+        if (pool == null) pool = new ForkJoinPool(threads);
+        return pool;
+    }
 
-        HashMap<String, Integer> currentItemset = firstItemset; 
+    public static void Apriori(List<int[]> itemList, double minSupport, Map<Itemset, Integer> result) {//Level-wise mining, every frequent itemset is put to result
+        HashMap<Itemset, Integer> firstItemset = Make_First(itemList);//For easy to using, traslate csv file to hashmap
+
+        HashMap<Itemset, Integer> currentItemset = firstItemset;
+        Baskets baskets = new Baskets(itemList, null, true);
         int depth = 1;
 
         while (!currentItemset.isEmpty()) {
             currentItemset = Filter(currentItemset, minSupport);//filtring if itemset's value is less than min suppport
-            for (Map.Entry<String ,Integer> entry : currentItemset.entrySet()) {
-                solve.put(entry.getKey(), entry.getValue());//After flitering, that Itemset is we want, so for return we put the answer to new hashmap
-                
+            for (Map.Entry<Itemset ,Integer> entry : currentItemset.entrySet()) {
+                result.put(entry.getKey(), entry.getValue());//After flitering, that Itemset is we want, so for return we put the answer to new hashmap
+
             }
 
             if (currentItemset.isEmpty()) break;//If current itemset is empty, stop the loop
 
-            currentItemset = Combination(currentItemset, depth, itemList);//if current itemset is not empty, we get the itemset and make new item set using combination
+            baskets = Reduce(baskets, currentItemset.keySet(), depth + 1);//The next level only needs what can still hold one of its candidates
+            currentItemset = Combination(currentItemset, depth, baskets, minSupport);//if current itemset is not empty, we get the itemset and make new item set using combination
             depth++;
 
         }
+    }
 
-        List<Map.Entry<String, Integer>> entryList = new LinkedList<>(solve.entrySet());
-        
-        entryList.sort(Map.Entry.comparingByValue());//Organize the keys we stored in solve in ascending order of value
-
-        for(Map.Entry<String, Integer> entry : entryList){
-            System.out.println(entry.getKey() + " " + String.format("%.8f", (double) entry.getValue()/itemList.size()) );
+    public static Baskets Reduce(Baskets baskets, Set<Itemset> frequent, int nextDepth) {//Drop items outside the frequent itemsets and transactions shorter than nextDepth, then merge identical transactions
+        BitSet useful = new BitSet(itemNames.size());
+        for (Itemset itemset : frequent) {
+            for (int item : itemset.items) useful.set(item);
         }
 
+        HashMap<Itemset, Integer> index = baskets.merging ? new HashMap<>() : null;
+        List<int[]> rows = new ArrayList<>();
+        int kept = 0;
+        int[] weights = new int[16];
+        int[] buffer = new int[0];
+        for (int i = 0; i < baskets.rows.size(); i++) {
+            int[] row = baskets.rows.get(i);
+            if (row.length < nextDepth) continue;
+            if (buffer.length < row.length) buffer = new int[row.length];
+            int length = 0;
+            for (int item : row) {
+                if (useful.get(item)) buffer[length++] = item;
+            }
+            if (length < nextDepth) continue;//Cannot contain any candidate of the next level
 
+            int weight = baskets.weights == null ? 1 : baskets.weights[i];
+            int[] items = length == row.length ? row : Arrays.copyOf(buffer, length);
+            kept++;
+            if (index != null) {
+                Itemset key = new Itemset(items);
+                Integer position = index.putIfAbsent(key, rows.size());
+                if (position != null) {
+                    weights[position] += weight;
+                    continue;
+                }
+            }
+            if (rows.size() == weights.length) weights = Arrays.copyOf(weights, weights.length * 2);
+            weights[rows.size()] = weight;
+            rows.add(items);
+        }
+        boolean merging = index != null && rows.size() < kept * 0.95;//Hashing every transaction is only worth it while it removes a few percent of them
+        return new Baskets(rows, Arrays.copyOf(weights, rows.size()), merging);
     }
-    public static List<List<String>> readCSV(String csvFile) {//Used to get a csv file
-        List<List<String>> itemList = new ArrayList<>();
+
+    public static List<int[]> readCSV(String csvFile) {//Used to get a csv file, every item is translated to its id in the dictionary
+        List<int[]> itemList = new ArrayList<>();
 
         try (BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
             String line;
             while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                List<String> lineData = new ArrayList<>();
-                for (String datum : data) {
-                    lineData.add(datum);
-                }
-                itemList.add(lineData);
+                itemList.add(Encode(line.split(",")));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -66,71 +249,1606 @@ public class Main {
 
         return itemList;
     }
-    public static HashMap<String, Integer> Make_First(List<List<String>> itemList) {//Preprocessed the data from the csv file to make it easier for us to use.
-        HashMap<String, Integer> itemset = new HashMap<>();
-        for (List<String> line : itemList) {
-            for (String item : line) {
-                itemset.merge(item, 1, Integer::sum);
+
+    public static int Read_Chunks(String csvFile, long chunkBytes, Consumer<List<int[]>> consumer) {//Stream a memory-mapped csv file in chunks of whole lines, returns the number of transactions
+        return Read_Chunks(csvFile, 0, Long.MAX_VALUE, chunkBytes, consumer);
+    }
+
+    public static int Read_Chunks(String csvFile, long from, long to, long chunkBytes, Consumer<List<int[]>> consumer) {//Same, only for the bytes from..to of the file
+        int total = 0;
+        try (FileChannel channel = FileChannel.open(Paths.get(csvFile), StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), to);
+            long position = from;
+            long window = Math.min(Math.max(chunkBytes, 1), Integer.MAX_VALUE);
+            while (position < size) {
+                long length = Math.min(window, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (int) length;
+                if (position + length < size) {//Cut the chunk after its last newline, the rest is read with the next chunk
+                    while (end > 0 && buffer.get(end - 1) != '\n') end--;
+                    if (end == 0) {//One line is longer than the chunk, map a bigger window
+                        window = Math.min(window * 2, Integer.MAX_VALUE);
+                        continue;
+                    }
+                }
+
+                List<int[]> chunk = new ArrayList<>();
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                for (int i = 0; i < end; i++) {
+                    byte b = buffer.get(i);
+                    if (b == '\n') {
+                        chunk.add(Encode(Trim_Line(line)));
+                        line.reset();
+                    } else {
+                        line.write(b);
+                    }
+                }
+                if (line.size() > 0) chunk.add(Encode(Trim_Line(line)));//Last line of the file without newline
+
+                total += chunk.size();
+                consumer.accept(chunk);
+                position += end;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return total;
+    }
+
+    private static String[] Trim_Line(ByteArrayOutputStream line) {//Same split as readCSV, a windows line ending is dropped
+        String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        if (text.endsWith("\r")) text = text.substring(0, text.length() - 1);
+        return text.split(",");
+    }
+
+    public static int[] Encode(String[] data) {//Translate one line to a sorted array of item ids without duplicates
+        int[] lineData = new int[data.length];
+        for (int i = 0; i < data.length; i++) {
+            Integer id = itemIds.get(data[i]);
+            if (id == null) {//First time we see this item, give it the next id
+                id = itemNames.size();
+                itemIds.put(data[i], id);
+                itemNames.add(data[i]);
+            }
+            lineData[i] = id;
+        }
+        Arrays.sort(lineData);
+        int size = 0;
+        for (int i = 0; i < lineData.length; i++) {
+            if (size == 0 || lineData[size - 1] != lineData[i]) lineData[size++] = lineData[i];
+        }
+        return size == lineData.length ? lineData : Arrays.copyOf(lineData, size);
+    }
+
+    public static String To_Names(Itemset itemset) {//Translate item ids back to the comma-separated names, only used when printing
+        StringBuilder names = new StringBuilder();
+        for (int item : itemset.items) {
+            if (names.length() > 0) names.append(",");
+            names.append(itemNames.get(item));
+        }
+        return names.toString();
+    }
+
+    public static HashMap<Itemset, Integer> Make_First(List<int[]> itemList) {//Preprocessed the data from the csv file to make it easier for us to use.
+        int[] counts = new int[itemNames.size()];
+        pairBuckets = buckets > 0 ? new int[buckets] : null;
+        for (int[] line : itemList) {
+            for (int item : line) {
+                counts[item]++;
+            }
+            if (pairBuckets != null) {//DHP: every pair of the line goes to its bucket, a bucket count is an upper bound of the support of its pairs
+                for (int i = 0; i < line.length; i++) {
+                    for (int j = i + 1; j < line.length; j++) pairBuckets[Pair_Bucket(line[i], line[j])]++;
+                }
             }
         }
+        HashMap<Itemset, Integer> itemset = new HashMap<>();
+        for (int item = 0; item < counts.length; item++) {
+            if (counts[item] > 0) itemset.put(new Itemset(new int[]{item}), counts[item]);
+        }
         return itemset;
     }
 
-    public static HashMap<String, Integer> Filter(HashMap<String, Integer> itemset, double minSupport) {//Removes all values that have a value less than MINSUPPORT
+    private static int Pair_Bucket(int a, int b) {//The high bits of the product mix both items, they are scaled down to the table size
+        long key = ((long) a << 32 | b) * 0x9E3779B97F4A7C15L;
+        return (int) (((key >>> 32) * pairBuckets.length) >>> 32);
+    }
+
+    public static HashMap<Itemset, Integer> Filter(HashMap<Itemset, Integer> itemset, double minSupport) {//Removes all values that have a value less than MINSUPPORT
         itemset.entrySet().removeIf(entry -> entry.getValue() < minSupport);
         return itemset;
     }
 
-    public static HashMap<String, Integer> Combination(HashMap<String, Integer> currentMap, int depth, List<List<String>> itemList) {//Takes the filtered hashmap, finds every single item in it, and rehashes it into a hashmap of combinations of those items
-        HashSet<String> uniqueItems = new HashSet<>();
-        currentMap.keySet().forEach(key -> uniqueItems.addAll(Arrays.asList(key.split(","))));//Separate comma-separated itemsets
-        String[] itemsArray = uniqueItems.toArray(new String[0]);
+    public static HashMap<Itemset, Integer> Combination(HashMap<Itemset, Integer> currentMap, int depth, Baskets baskets, double minSupport) {//Takes the filtered hashmap and makes the candidates of the next level from it, then keeps the ones that are frequent
+        int[][] sorted = Sorted(currentMap.keySet());
+        if (memoryBudget > 0 && Candidate_Bytes(Joins(sorted, depth), depth) > memoryBudget) {
+            return Combination_Batched(sorted, currentMap.keySet(), depth, baskets, minSupport);//The whole level does not fit, do it in batches of left operands
+        }
+        return Count_Frequent(Apriori_Gen(sorted, 0, sorted.length, currentMap.keySet(), depth), depth, baskets, minSupport);
+    }
 
-        combinationList.clear();
-        Make_Comb(itemsArray, new boolean[itemsArray.length], 0, depth + 1);
+    private static HashMap<Itemset, Integer> Count_Frequent(List<int[]> candidates, int depth, Baskets baskets, double minSupport) {//Count the candidates and keep the frequent ones
+        if (depth == 1 && pairBuckets != null) {
+            candidates.removeIf(pair -> pairBuckets[Pair_Bucket(pair[0], pair[1])] < minSupport);//A pair in a light bucket cannot be frequent, so it is never counted
+        }
 
-        HashMap<String, Integer> newMap = new HashMap<>();//Make new hash map using new combination
-        for (String combination : combinationList) {
-            int count = Counting(combination, itemList);
-            if (count >= minSupport) {
-                newMap.put(combination, count);
+        int[] counts = Counting(candidates, baskets.rows, baskets.weights);
+
+        HashMap<Itemset, Integer> newMap = new HashMap<>();//Make new hash map using new candidates
+        for (int i = 0; i < candidates.size(); i++) {
+            if (counts[i] >= minSupport) {
+                newMap.put(new Itemset(candidates.get(i)), counts[i]);
             }
         }
         return newMap;
     }
 
-    public static void Make_Comb(String[] array, boolean[] visited, int start, int r) {//Functions that only calculate the combination itself
-        if (r == 0) {
-            Add_Comb(array, visited);
+    private static long Joins(int[][] sorted, int depth) {//Number of candidates the join of sorted makes before pruning
+        long joins = 0;
+        for (int start = 0; start < sorted.length; ) {
+            int end = Group_End(sorted, start, sorted.length, depth);
+            long size = end - start;
+            joins += size * (size - 1) / 2;
+            start = end;
+        }
+        return joins;
+    }
+
+    private static long Candidate_Bytes(long candidates, int depth) {//Heap used while counting: per candidate its array and list slot, a 32 byte trie leaf, its key and child slot in the parent at up to twice the fan-out, and one counter per worker
+        return candidates * ((16 + 4L * (depth + 1) + 7) / 8 * 8 + 6 + 32 + 16 + 4L * (threads + 1));
+    }
+
+    private static int Group_End(int[][] sorted, int start, int to, int depth) {//End of the run of itemsets sharing the first depth-1 items of sorted[start]
+        int end = start + 1;
+        while (end < to && Same_Prefix(sorted[start], sorted[end], depth - 1)) end++;
+        return end;
+    }
+
+    private static HashMap<Itemset, Integer> Combination_Batched(int[][] sorted, Set<Itemset> frequent, int depth, Baskets baskets, double minSupport) {//Left operands are cut into batches that fit the budget, the frequent itemsets of every batch go to a run file
+        List<Path> runs = new ArrayList<>();
+        try {
+            long candidates = 0;
+            int from = 0;
+            for (int i = 0, groupEnd = 0; i < sorted.length; i++) {//sorted[i] joins the rest of its prefix group, even when the group is the whole level
+                if (i == groupEnd) groupEnd = Group_End(sorted, i, sorted.length, depth);
+                long joins = groupEnd - i - 1;
+                if (candidates > 0 && Candidate_Bytes(candidates + joins, depth) > memoryBudget) {
+                    runs.add(Write_Run(Count_Frequent(Apriori_Gen(sorted, from, i, frequent, depth), depth, baskets, minSupport)));
+                    from = i;
+                    candidates = 0;
+                }
+                candidates += joins;
+            }
+            runs.add(Write_Run(Count_Frequent(Apriori_Gen(sorted, from, sorted.length, frequent, depth), depth, baskets, minSupport)));
+            return Merge_Runs(runs, depth + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (Path run : runs) run.toFile().delete();
+        }
+    }
+
+    private static Path Write_Run(HashMap<Itemset, Integer> batch) throws IOException {//Items and support of every itemset, in lexicographic order
+        Path run = Files.createTempFile("apriori-run-", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            out.writeInt(batch.size());
+            for (int[] itemset : Sorted(batch.keySet())) {
+                for (int item : itemset) out.writeInt(item);
+                out.writeInt(batch.get(new Itemset(itemset)));
+            }
+        }
+        return run;
+    }
+
+    private static HashMap<Itemset, Integer> Merge_Runs(List<Path> runs, int length) throws IOException {//Batches hold increasing left operands, so every run comes after the one before it and the merge only appends
+        HashMap<Itemset, Integer> newMap = new LinkedHashMap<>();//In sorted order, so Sorted finds the next level already sorted
+        for (Path run : runs) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)))) {
+                for (int n = in.readInt(); n > 0; n--) {
+                    int[] itemset = new int[length];
+                    for (int i = 0; i < length; i++) itemset[i] = in.readInt();
+                    newMap.put(new Itemset(itemset), in.readInt());
+                }
+            }
+        }
+        return newMap;
+    }
+
+    public static int[][] Sorted(Set<Itemset> frequent) {//Itemsets in lexicographic order, so itemsets with the same prefix are next to each other
+        int[][] sorted = new int[frequent.size()][];
+        int n = 0;
+        for (Itemset itemset : frequent) sorted[n++] = itemset.items;
+        Arrays.sort(sorted, Arrays::compare);
+        return sorted;
+    }
+
+    public static List<int[]> Apriori_Gen(Set<Itemset> frequent, int depth) {//Join frequent itemsets of size depth that share their first depth-1 items, and prune candidates having an infrequent subset
+        int[][] sorted = Sorted(frequent);
+        return Apriori_Gen(sorted, 0, sorted.length, frequent, depth);
+    }
+
+    private static List<int[]> Apriori_Gen(int[][] sorted, int from, int to, Set<Itemset> frequent, int depth) {//Same, only for the joins whose left itemset is in sorted[from..to)
+        List<int[]> candidates = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            for (int j = i + 1; j < sorted.length; j++) {
+                if (!Same_Prefix(sorted[i], sorted[j], depth - 1)) break;//No more itemsets with the prefix of sorted[i]
+                int[] candidate = Arrays.copyOf(sorted[i], depth + 1);
+                candidate[depth] = sorted[j][depth - 1];
+                if (Has_Frequent_Subsets(candidate, frequent)) candidates.add(candidate);
+            }
+        }
+        return candidates;
+    }
+
+    private static boolean Same_Prefix(int[] a, int[] b, int length) {//Check the first length items of two itemsets
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean Has_Frequent_Subsets(int[] candidate, Set<Itemset> frequent) {//Every subset of a frequent itemset is frequent, so one infrequent subset is enough to drop the candidate
+        if (candidate.length <= 2) return true;//Both subsets of a pair are the joined items themselves
+        int[] subset = new int[candidate.length - 1];
+        for (int skip = 0; skip < candidate.length - 2; skip++) {//The two subsets without the last two items are the joined itemsets, so they are not checked
+            int index = 0;
+            for (int i = 0; i < candidate.length; i++) {
+                if (i != skip) subset[index++] = candidate[i];
+            }
+            if (!frequent.contains(new Itemset(subset))) return false;//The key is only used for this lookup, so the buffer can be reused
+        }
+        return true;
+    }
+
+    public static int[] Counting(List<int[]> candidates, List<int[]> itemList) {//Count every candidate of the level with a single pass over itemList
+        return Counting(candidates, itemList, null);
+    }
+
+    public static int[] Counting(List<int[]> candidates, List<int[]> itemList, int[] weights) {//Same, a transaction counts weights[i] times when weights is given
+        CandidateTrie trie = new CandidateTrie(candidates);
+        if (threads > 1 && itemList.size() >= 2 * threads) {//Split the transactions into chunks counted on the fork-join pool
+            int chunk = Math.max(1024, itemList.size() / (threads * 4));
+            return Pool().invoke(new CountTask(trie, itemList, weights, 0, itemList.size(), chunk));
+        }
+        int[] counts = new int[trie.Size()];
+        for (int i = 0; i < itemList.size(); i++) {
+            trie.Count(itemList.get(i), weights == null ? 1 : weights[i], counts);
+        }
+        return counts;
+    }
+
+    public static void Eclat(List<int[]> itemList, double minSupport, Map<Itemset, Integer> result) {//Depth-first mining on vertical tid bitmaps, itemList is scanned only once
+        TidBitmap[] bitmaps = Vertical(itemList);
+        int[] items = Frequent_Items(bitmaps, minSupport);
+        TidBitmap[] tids = new TidBitmap[items.length];
+        for (int i = 0; i < items.length; i++) tids[i] = bitmaps[items[i]];
+        Eclat_Extend(new int[0], items, tids, minSupport, result);
+    }
+
+    public static TidBitmap[] Vertical(List<int[]> itemList) {//Tid bitmap of every item, built with one scan of itemList
+        TidBitmap[] bitmaps = new TidBitmap[itemNames.size()];
+        for (int item = 0; item < bitmaps.length; item++) bitmaps[item] = new TidBitmap();
+        for (int tid = 0; tid < itemList.size(); tid++) {
+            for (int item : itemList.get(tid)) bitmaps[item].Add(tid);
+        }
+        return bitmaps;
+    }
+
+    private static int[] Frequent_Items(TidBitmap[] bitmaps, double minSupport) {//Frequent items, rare items first keeps the tid bitmaps of the deep branches small
+        List<Integer> frequentItems = new ArrayList<>();
+        for (int item = 0; item < bitmaps.length; item++) {
+            if (bitmaps[item].cardinality >= minSupport) frequentItems.add(item);
+        }
+        frequentItems.sort(Comparator.comparingInt(item -> bitmaps[item].cardinality));
+        int[] items = new int[frequentItems.size()];
+        for (int i = 0; i < items.length; i++) items[i] = frequentItems.get(i);
+        return items;
+    }
+
+    private static void Eclat_Extend(int[] prefix, int[] items, TidBitmap[] tids, double minSupport, Map<Itemset, Integer> result) {//Every items[i] is frequent together with prefix, extend it with the items after it
+        for (int i = 0; i < items.length; i++) {
+            int[] itemset = Arrays.copyOf(prefix, prefix.length + 1);
+            itemset[prefix.length] = items[i];
+            int[] key = itemset.clone();
+            Arrays.sort(key);
+            result.put(new Itemset(key), tids[i].cardinality);
+
+            int[] nextItems = new int[items.length - i - 1];
+            TidBitmap[] nextTids = new TidBitmap[items.length - i - 1];
+            int size = 0;
+            for (int j = i + 1; j < items.length; j++) {
+                TidBitmap both = tids[i].And(tids[j]);
+                if (both.cardinality >= minSupport) {
+                    nextItems[size] = items[j];
+                    nextTids[size++] = both;
+                }
+            }
+            if (size > 0) Eclat_Extend(itemset, Arrays.copyOf(nextItems, size), Arrays.copyOf(nextTids, size), minSupport, result);
+        }
+    }
+
+    public static void FP_Growth(List<int[]> itemList, double minSupport, Map<Itemset, Integer> result) {//Two passes over itemList build the FP-tree, then it is mined recursively
+        int[] counts = new int[itemNames.size()];
+        for (int[] line : itemList) {
+            for (int item : line) counts[item]++;
+        }
+
+        Integer[] order = new Integer[counts.length];
+        for (int item = 0; item < order.length; item++) order[item] = item;
+        Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? counts[b] - counts[a] : a - b);//Frequent items first gives the most shared prefixes
+        int[] rank = new int[counts.length];
+        for (int i = 0; i < order.length; i++) rank[order[i]] = i;
+
+        FPTree tree = new FPTree(counts.length);
+        int[] path = new int[0];
+        for (int[] line : itemList) {
+            if (path.length < line.length) path = new int[line.length];
+            int length = 0;
+            for (int item : line) {
+                if (counts[item] >= minSupport) path[length++] = rank[item];
+            }
+            Arrays.sort(path, 0, length);
+            for (int i = 0; i < length; i++) path[i] = order[path[i]];
+            tree.Insert(path, length, 1);
+        }
+
+        FP_Mine(tree, new int[0], minSupport, result);
+    }
+
+    private static void FP_Mine(FPTree tree, int[] suffix, double minSupport, Map<Itemset, Integer> result) {//Every frequent item of the tree extends suffix, its conditional tree is mined for longer itemsets
+        int[] path = new int[8];
+        for (int i = 0; i < tree.size; i++) {
+            int item = tree.items[i];
+            if (tree.counts[item] < minSupport) continue;
+
+            int[] itemset = Arrays.copyOf(suffix, suffix.length + 1);
+            itemset[suffix.length] = item;
+            int[] key = itemset.clone();
+            Arrays.sort(key);
+            result.put(new Itemset(key), tree.counts[item]);
+
+            int[] conditionalCounts = new int[tree.counts.length];//Conditional pattern base of item, counted once to know what stays frequent
+            for (FPTree.Node node = tree.heads[item]; node != null; node = node.link) {
+                for (FPTree.Node up = node.parent; up != tree.root; up = up.parent) conditionalCounts[up.item] += node.count;
+            }
+
+            FPTree conditional = new FPTree(tree.counts.length);
+            for (FPTree.Node node = tree.heads[item]; node != null; node = node.link) {
+                int length = 0;
+                for (FPTree.Node up = node.parent; up != tree.root; up = up.parent) {
+                    if (conditionalCounts[up.item] < minSupport) continue;
+                    if (length == path.length) path = Arrays.copyOf(path, length * 2);
+                    path[length++] = up.item;
+                }
+                for (int a = 0, b = length - 1; a < b; a++, b--) {//The walk went leaf to root, the tree wants root to leaf
+                    int temp = path[a];
+                    path[a] = path[b];
+                    path[b] = temp;
+                }
+                if (length > 0) conditional.Insert(path, length, node.count);
+            }
+            if (conditional.size > 0) FP_Mine(conditional, itemset, minSupport, result);
+        }
+    }
+
+    public static int SON(String csvFile, double number, long chunkBytes, Map<Itemset, Integer> result) {//Partitioned mining: locally frequent itemsets of every chunk, then one exact count of their union
+        HashSet<Itemset> union = new HashSet<>();
+        int total = Read_Chunks(csvFile, chunkBytes, chunk -> {//Pass 1, a globally frequent itemset is frequent in at least one chunk at the same fraction
+            HashMap<Itemset, Integer> local = new HashMap<>();
+            Apriori(chunk, chunk.size() * number, local);
+            union.addAll(local.keySet());
+        });
+
+        List<int[]> candidates = new ArrayList<>();
+        for (Itemset itemset : union) candidates.add(itemset.items);
+        CandidateTrie trie = new CandidateTrie(candidates);
+        int[] counts = new int[trie.Size()];
+        Read_Chunks(csvFile, chunkBytes, chunk -> {//Pass 2, exact supports of the union
+            for (int[] items : chunk) trie.Count(items, 1, counts);
+        });
+
+        for (int i = 0; i < candidates.size(); i++) {
+            if (counts[i] >= total * number) result.put(new Itemset(candidates.get(i)), counts[i]);
+        }
+        return total;
+    }
+
+    public static List<Rule> Rules(Map<Itemset, Integer> frequent, int total, double minConfidence, double minLift, double minLeverage) {//Rules of every frequent itemset, supports are only looked up in frequent
+        return Rules(frequent, itemset -> frequent.getOrDefault(new Itemset(itemset), 0), total, minConfidence, minLift, minLeverage);
+    }
+
+    public static List<Rule> Rules(Map<Itemset, Integer> itemsets, ToIntFunction<int[]> support, int total, double minConfidence, double minLift, double minLeverage) {//Rules of every itemset in itemsets, the supports of X and Y come from support
+        List<Rule> rules = Pool().submit(() -> itemsets.entrySet().parallelStream()
+                .filter(entry -> entry.getKey().items.length > 1)
+                .flatMap(entry -> Rules_Of(entry.getKey().items, entry.getValue(), support, total, minConfidence, minLift, minLeverage).stream())
+                .collect(Collectors.toList())).join();
+        rules.sort((a, b) -> {//Strongest rules first, ties by item ids so the order does not depend on the threads
+            if (a.confidence != b.confidence) return Double.compare(b.confidence, a.confidence);
+            if (a.lift != b.lift) return Double.compare(b.lift, a.lift);
+            int order = Arrays.compare(a.antecedent, b.antecedent);
+            return order != 0 ? order : Arrays.compare(a.consequent, b.consequent);
+        });
+        return rules;
+    }
+
+    private static List<Rule> Rules_Of(int[] itemset, int count, ToIntFunction<int[]> support, int total, double minConfidence, double minLift, double minLeverage) {//Consequents grow level-wise, a consequent below minConfidence is never extended
+        List<Rule> rules = new ArrayList<>();
+        Set<Itemset> consequents = new HashSet<>();
+        for (int item : itemset) {
+            Try_Rule(itemset, count, new int[]{item}, support, total, minConfidence, minLift, minLeverage, consequents, rules);
+        }
+        for (int size = 1; !consequents.isEmpty() && size + 1 < itemset.length; size++) {//Confidence can only drop when an item moves from X to Y
+            Set<Itemset> next = new HashSet<>();
+            for (int[] consequent : Apriori_Gen(consequents, size)) {
+                Try_Rule(itemset, count, consequent, support, total, minConfidence, minLift, minLeverage, next, rules);
+            }
+            consequents = next;
+        }
+        return rules;
+    }
+
+    private static void Try_Rule(int[] itemset, int count, int[] consequent, ToIntFunction<int[]> support, int total, double minConfidence, double minLift, double minLeverage, Set<Itemset> confident, List<Rule> rules) {
+        int[] antecedent = new int[itemset.length - consequent.length];
+        int index = 0, j = 0;
+        for (int item : itemset) {//Both are sorted, so X is the merge difference
+            if (j < consequent.length && consequent[j] == item) j++;
+            else antecedent[index++] = item;
+        }
+        int antecedentCount = support.applyAsInt(antecedent);
+        int consequentCount = support.applyAsInt(consequent);
+        if (antecedentCount == 0 || consequentCount == 0) return;//Every subset of a frequent itemset is frequent, so this only happens for partial maps
+
+        double confidence = (double) count / antecedentCount;
+        if (confidence < minConfidence) return;
+        confident.add(new Itemset(consequent));
+
+        double lift = confidence * total / consequentCount;
+        double leverage = (double) count / total - ((double) antecedentCount / total) * ((double) consequentCount / total);
+        if (lift >= minLift && leverage >= minLeverage) rules.add(new Rule(antecedent, consequent, count, confidence, lift, leverage));
+    }
+
+    public static boolean Contains(int[] items, int[] subset) {//Both arrays are sorted, so one merge walk tells if every item of subset is in items
+        if (subset.length > items.length) return false;
+        int i = 0;
+        for (int item : subset) {
+            while (i < items.length && items[i] < item) i++;
+            if (i == items.length || items[i] != item) return false;
+            i++;
+        }
+        return true;
+    }
+
+    private static int[] Union(int[] a, int[] b) {//Merge of two sorted itemsets
+        int[] union = new int[a.length + b.length];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) union[size++] = a[i++];
+            else if (i == a.length || b[j] < a[i]) union[size++] = b[j++];
+            else {
+                union[size++] = a[i++];
+                j++;
+            }
+        }
+        return size == union.length ? union : Arrays.copyOf(union, size);
+    }
+
+    public static void Closed(List<int[]> itemList, double minSupport, Map<Itemset, Integer> result) {//CHARM: depth-first on tid bitmaps, itemsets with the same transactions are merged while searching
+        TidBitmap[] bitmaps = Vertical(itemList);
+        List<int[]> itemsets = new ArrayList<>();
+        List<TidBitmap> tids = new ArrayList<>();
+        for (int item : Frequent_Items(bitmaps, minSupport)) {
+            itemsets.add(new int[]{item});
+            tids.add(bitmaps[item]);
+        }
+        Charm_Extend(itemsets, tids, minSupport, new HashMap<>(), result);
+    }
+
+    private static void Charm_Extend(List<int[]> itemsets, List<TidBitmap> tids, double minSupport, HashMap<Long, List<int[]>> closedByTids, Map<Itemset, Integer> result) {
+        boolean[] removed = new boolean[itemsets.size()];
+        for (int i = 0; i < itemsets.size(); i++) {
+            if (removed[i]) continue;
+            int[] itemset = itemsets.get(i);
+            TidBitmap tidset = tids.get(i);
+            List<int[]> extensions = new ArrayList<>();//Only the added items, itemset can still grow in this loop
+            List<TidBitmap> extensionTids = new ArrayList<>();
+            for (int j = i + 1; j < itemsets.size(); j++) {
+                if (removed[j]) continue;
+                TidBitmap both = tidset.And(tids.get(j));
+                if (both.cardinality < minSupport) continue;
+                boolean sameAsI = both.cardinality == tidset.cardinality;//t(i) is a subset of t(j)
+                boolean sameAsJ = both.cardinality == tids.get(j).cardinality;//t(j) is a subset of t(i)
+                if (sameAsI) {//Every transaction of itemset also has itemsets[j], so it belongs to the closure
+                    itemset = Union(itemset, itemsets.get(j));
+                    if (sameAsJ) removed[j] = true;
+                } else {
+                    if (sameAsJ) removed[j] = true;//itemsets[j] alone is never closed, it only lives on under itemset
+                    extensions.add(itemsets.get(j));
+                    extensionTids.add(both);
+                }
+            }
+            if (!extensions.isEmpty()) {
+                List<int[]> children = new ArrayList<>();
+                for (int[] extension : extensions) children.add(Union(itemset, extension));
+                Charm_Extend(children, extensionTids, minSupport, closedByTids, result);
+            }
+
+            long key = ((long) tidset.cardinality << 32) | (tidset.Hash() & 0xffffffffL);
+            List<int[]> sameTids = closedByTids.computeIfAbsent(key, k -> new ArrayList<>());
+            boolean subsumed = false;
+            for (int[] closed : sameTids) {//A superset with the same support means itemset is not closed
+                if (Contains(closed, itemset)) {
+                    subsumed = true;
+                    break;
+                }
+            }
+            if (!subsumed) {
+                sameTids.add(itemset);
+                result.put(new Itemset(itemset), tidset.cardinality);
+            }
+        }
+    }
+
+    public static int Closed_Support(int[] itemset, Map<Itemset, Integer> closed) {//Support of any itemset from the closed ones: the largest support of a closed superset, 0 if it is not frequent
+        Integer support = closed.get(new Itemset(itemset));
+        if (support != null) return support;
+        int best = 0;
+        for (Map.Entry<Itemset, Integer> entry : closed.entrySet()) {
+            if (entry.getValue() > best && Contains(entry.getKey().items, itemset)) best = entry.getValue();
+        }
+        return best;
+    }
+
+    public static void Maximal(List<int[]> itemList, double minSupport, Map<Itemset, Integer> result) {//MAFIA: depth-first on tid bitmaps with parent equivalence and head-union-tail pruning
+        TidBitmap[] bitmaps = Vertical(itemList);
+        int[] items = Frequent_Items(bitmaps, minSupport);
+        TidBitmap[] tids = new TidBitmap[items.length];
+        for (int i = 0; i < items.length; i++) tids[i] = bitmaps[items[i]];
+        Maximal_Extend(new int[0], itemList.size(), items, tids, minSupport, new ArrayList<>(), result);
+    }
+
+    private static void Maximal_Extend(int[] head, int headCount, int[] tail, TidBitmap[] tailTids, double minSupport, List<int[]> maximal, Map<Itemset, Integer> result) {//tailTids[i] are the transactions of head with tail[i]
+        int[] rest = new int[tail.length];
+        TidBitmap[] restTids = new TidBitmap[tail.length];
+        int size = 0;
+        for (int i = 0; i < tail.length; i++) {
+            if (tailTids[i].cardinality == headCount) head = Union(head, new int[]{tail[i]});//Every transaction of head has tail[i], so it can join head without a new branch
+            else {
+                rest[size] = tail[i];
+                restTids[size++] = tailTids[i];
+            }
+        }
+
+        int[] headUnionTail = head;
+        for (int i = 0; i < size; i++) headUnionTail = Union(headUnionTail, new int[]{rest[i]});
+        if (Is_Subset_Of_Any(headUnionTail, maximal)) return;//Nothing below can be maximal
+
+        if (size == 0) {//No frequent extension, head is maximal unless an earlier branch found a superset
+            if (head.length > 0 && !Is_Subset_Of_Any(head, maximal)) {
+                maximal.add(head);
+                result.put(new Itemset(head), headCount);
+            }
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            int[] nextTail = new int[size - i - 1];
+            TidBitmap[] nextTids = new TidBitmap[size - i - 1];
+            int next = 0;
+            for (int j = i + 1; j < size; j++) {
+                TidBitmap both = restTids[i].And(restTids[j]);
+                if (both.cardinality >= minSupport) {
+                    nextTail[next] = rest[j];
+                    nextTids[next++] = both;
+                }
+            }
+            Maximal_Extend(Union(head, new int[]{rest[i]}), restTids[i].cardinality, Arrays.copyOf(nextTail, next), Arrays.copyOf(nextTids, next), minSupport, maximal, result);
+        }
+    }
+
+    private static boolean Is_Subset_Of_Any(int[] itemset, List<int[]> maximal) {
+        for (int[] found : maximal) {
+            if (Contains(found, itemset)) return true;
+        }
+        return false;
+    }
+
+    public static int Incremental(String csvFile, double number, String statePath, long chunkBytes, Map<Itemset, Integer> result) {//FUP: the counts of the frequent itemsets and their negative border are kept, only new lines are scanned
+        HashMap<Itemset, Integer> known = new HashMap<>();//Exact counts over the part of the file read so far
+        long offset = 0;
+        int total = 0;
+        Path state = Paths.get(statePath);
+        if (Files.exists(state)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(state)))) {
+                offset = in.readLong();
+                total = in.readInt();
+                int items = in.readInt();
+                for (int i = 0; i < items; i++) {
+                    String name = in.readUTF();
+                    itemIds.put(name, itemNames.size());
+                    itemNames.add(name);
+                }
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    int[] itemset = new int[in.readInt()];
+                    for (int j = 0; j < itemset.length; j++) itemset[j] = in.readInt();
+                    known.put(new Itemset(itemset), in.readInt());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        long end;
+        try {
+            end = Complete_Lines_End(csvFile);//A last line without its newline may still be growing, it is read by a later run
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (end < offset) throw new IllegalStateException(csvFile + " is shorter than when " + statePath + " was written");
+        List<int[]> delta = new ArrayList<>();
+        total += Read_Chunks(csvFile, offset, end, chunkBytes, delta::addAll);
+        boolean onlyDelta = offset == 0;//First run, the delta is the whole file
+
+        List<int[]> knownItemsets = new ArrayList<>();
+        for (Itemset itemset : known.keySet()) knownItemsets.add(itemset.items);
+        for (int item = 0; item < itemNames.size(); item++) {//Single items are always counted, new items start from zero
+            if (known.putIfAbsent(new Itemset(new int[]{item}), 0) == null) knownItemsets.add(new int[]{item});
+        }
+        int[] deltaCounts = Counting(knownItemsets, delta);//Updating the known counts only needs the delta
+        for (int i = 0; i < knownItemsets.size(); i++) known.merge(new Itemset(knownItemsets.get(i)), deltaCounts[i], Integer::sum);
+
+        double threshold = total * number;
+        HashMap<Itemset, Integer> next = new HashMap<>();//Frequent itemsets and negative border of the new file
+        HashMap<Itemset, Integer> current = new HashMap<>();
+        for (int item = 0; item < itemNames.size(); item++) {
+            Itemset single = new Itemset(new int[]{item});
+            int count = known.get(single);
+            next.put(single, count);
+            if (count >= threshold) current.put(single, count);
+        }
+        for (int depth = 1; !current.isEmpty(); depth++) {
+            result.putAll(current);
+            List<int[]> candidates = Apriori_Gen(current.keySet(), depth);
+            List<int[]> unknown = new ArrayList<>();
+            for (int[] candidate : candidates) {
+                if (!known.containsKey(new Itemset(candidate))) unknown.add(candidate);
+            }
+            if (!unknown.isEmpty()) {//Only itemsets that were below the border before need the whole file
+                int[] counts;
+                if (onlyDelta) {
+                    counts = Counting(unknown, delta);
+                } else {
+                    CandidateTrie trie = new CandidateTrie(unknown);
+                    int[] fileCounts = new int[trie.Size()];
+                    Read_Chunks(csvFile, 0, end, chunkBytes, chunk -> {
+                        for (int[] items : chunk) trie.Count(items, 1, fileCounts);
+                    });
+                    counts = fileCounts;
+                }
+                for (int i = 0; i < unknown.size(); i++) known.put(new Itemset(unknown.get(i)), counts[i]);
+            }
+
+            current = new HashMap<>();
+            for (int[] candidate : candidates) {
+                Itemset itemset = new Itemset(candidate);
+                int count = known.get(itemset);
+                next.put(itemset, count);
+                if (count >= threshold) current.put(itemset, count);
+            }
+        }
+
+        Path temporary = Paths.get(statePath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeLong(end);
+            out.writeInt(total);
+            out.writeInt(itemNames.size());
+            for (String name : itemNames) out.writeUTF(name);
+            out.writeInt(next.size());
+            for (Map.Entry<Itemset, Integer> entry : next.entrySet()) {
+                out.writeInt(entry.getKey().items.length);
+                for (int item : entry.getKey().items) out.writeInt(item);
+                out.writeInt(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temporary, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);//A crash never leaves a half written state
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return total;
+    }
+
+    public static void Top_K(List<int[]> itemList, int k, int minLength, double minSupport, Map<Itemset, Integer> result) {//Depth-first on tid bitmaps, the support threshold rises to the k-th best support found so far
+        if (k <= 0) return;//Nothing to keep, and the threshold needs a k-th itemset
+        Comparator<Map.Entry<Itemset, Integer>> worstFirst = Map.Entry.<Itemset, Integer>comparingByValue()
+                .thenComparing((a, b) -> Arrays.compare(b.getKey().items, a.getKey().items));//Among equal supports the larger item ids go first
+        PriorityQueue<Map.Entry<Itemset, Integer>> best = new PriorityQueue<>(worstFirst);//Min-heap of at most k itemsets
+
+        TidBitmap[] bitmaps = Vertical(itemList);
+        int[] items = Frequent_Items(bitmaps, Math.max(minSupport, 1));
+        int[] descending = new int[items.length];
+        TidBitmap[] tids = new TidBitmap[items.length];
+        for (int i = 0; i < items.length; i++) {//Frequent items first so the threshold rises early
+            descending[i] = items[items.length - 1 - i];
+            tids[i] = bitmaps[descending[i]];
+        }
+        Top_K_Extend(new int[0], descending, tids, k, minLength, Math.max(minSupport, 1), best, worstFirst);
+
+        for (Map.Entry<Itemset, Integer> entry : best) result.put(entry.getKey(), entry.getValue());
+    }
+
+    private static void Top_K_Extend(int[] prefix, int[] items, TidBitmap[] tids, int k, int minLength, double floor, PriorityQueue<Map.Entry<Itemset, Integer>> best, Comparator<Map.Entry<Itemset, Integer>> worstFirst) {
+        for (int i = 0; i < items.length; i++) {
+            if (tids[i].cardinality < Top_K_Threshold(best, k, floor)) continue;//The threshold may have risen since this extension was made
+            int[] itemset = Union(prefix, new int[]{items[i]});
+            if (itemset.length >= minLength) {
+                Map.Entry<Itemset, Integer> entry = new AbstractMap.SimpleEntry<>(new Itemset(itemset), tids[i].cardinality);
+                if (best.size() < k) best.add(entry);
+                else if (worstFirst.compare(entry, best.peek()) > 0) {
+                    best.poll();
+                    best.add(entry);
+                }
+            }
+
+            int[] nextItems = new int[items.length - i - 1];
+            TidBitmap[] nextTids = new TidBitmap[items.length - i - 1];
+            int size = 0;
+            for (int j = i + 1; j < items.length; j++) {
+                TidBitmap both = tids[i].And(tids[j]);
+                if (both.cardinality >= Top_K_Threshold(best, k, floor)) {//A superset never has a larger support, so it cannot enter the heap either
+                    nextItems[size] = items[j];
+                    nextTids[size++] = both;
+                }
+            }
+            if (size > 0) Top_K_Extend(itemset, Arrays.copyOf(nextItems, size), Arrays.copyOf(nextTids, size), k, minLength, floor, best, worstFirst);
+        }
+    }
+
+    private static double Top_K_Threshold(PriorityQueue<Map.Entry<Itemset, Integer>> best, int k, double floor) {//Smallest support that can still enter the heap
+        if (best.size() < k) return floor;
+        return Math.max(floor, best.peek().getValue());
+    }
+
+    public static boolean Toivonen(List<int[]> itemList, double number, double fraction, double lower, long seed, Map<Itemset, Integer> result) {//Returns true when the result is guaranteed to be every frequent itemset
+        Random random = new Random(seed);
+        List<int[]> sample = new ArrayList<>();
+        for (int[] items : itemList) {
+            if (random.nextDouble() < fraction) sample.add(items);
+        }
+        HashMap<Itemset, Integer> sampled = new HashMap<>();
+        Apriori(sample, Math.max(sample.size() * number * lower, 1), sampled);//A lower threshold makes a miss in the sample less likely
+
+        List<int[]> frequent = new ArrayList<>();
+        for (Itemset itemset : sampled.keySet()) frequent.add(itemset.items);
+        List<int[]> border = Negative_Border(sampled.keySet());
+        List<int[]> candidates = new ArrayList<>(frequent);
+        candidates.addAll(border);
+        int[] counts = Counting(candidates, itemList);//The only pass over the full data
+
+        double threshold = itemList.size() * number;
+        boolean complete = true;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (counts[i] < threshold) continue;
+            if (i < frequent.size()) result.put(new Itemset(candidates.get(i)), counts[i]);
+            else complete = false;//Supersets of this border itemset were never counted
+        }
+        return complete;
+    }
+
+    public static List<int[]> Negative_Border(Set<Itemset> frequent) {//Itemsets that are not frequent but all of their subsets are
+        List<int[]> border = new ArrayList<>();
+        HashMap<Integer, Set<Itemset>> levels = new HashMap<>();
+        for (Itemset itemset : frequent) levels.computeIfAbsent(itemset.items.length, length -> new HashSet<>()).add(itemset);
+        for (int item = 0; item < itemNames.size(); item++) {
+            if (!frequent.contains(new Itemset(new int[]{item}))) border.add(new int[]{item});
+        }
+        for (Map.Entry<Integer, Set<Itemset>> level : levels.entrySet()) {
+            for (int[] candidate : Apriori_Gen(level.getValue(), level.getKey())) {
+                if (!frequent.contains(new Itemset(candidate))) border.add(candidate);
+            }
+        }
+        return border;
+    }
+
+    public static void Sweep(List<int[]> itemList, double number, String[] args) {//--supports=a,b,c answers each value, without it the values are read from standard input, one per line
+        String supports = Option(args, "supports", null);
+        double lowest = number;
+        if (supports != null) {
+            for (String value : supports.split(",")) lowest = Math.min(lowest, Double.parseDouble(value));
+        }
+        int total = itemList.size();
+        FP_Growth(itemList, total * lowest, solve);
+        SupportIndex index = new SupportIndex(solve);
+
+        String confidence = Option(args, "confidence", null);
+        List<Rule> rules = confidence == null ? null : Rules(solve, total, Double.parseDouble(confidence), Double.parseDouble(Option(args, "lift", "0")), Double.parseDouble(Option(args, "leverage", "-1")));//Rules of a higher threshold are the ones whose itemset passes it
+        boolean countsOnly = Option(args, "counts", "false").equals("true");//--counts=true prints only the summary line of every threshold
+
+        if (supports != null) {
+            for (String value : supports.split(",")) Sweep_Answer(index, rules, Double.parseDouble(value), lowest, total, countsOnly);
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(System.in))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().isEmpty()) Sweep_Answer(index, rules, Double.parseDouble(line.trim()), lowest, total, countsOnly);
+                System.out.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void Sweep_Answer(SupportIndex index, List<Rule> rules, double support, double lowest, int total, boolean countsOnly) {
+        if (support < lowest) {
+            System.err.println("minsup " + support + " is below the mined minsup " + lowest);
             return;
         }
+        double minCount = total * support;
+        int size = index.Count_At_Least(minCount);
+        int ruleCount = 0;
+        if (rules != null) {
+            for (Rule rule : rules) {
+                if (rule.count >= minCount) ruleCount++;
+            }
+        }
+        System.out.println("# minsup " + support + " itemsets " + size + (rules == null ? "" : " rules " + ruleCount));
+        if (countsOnly) return;
+        System.out.flush();
+        try (ResultWriter writer = new ResultWriter(ResultWriter.Console(), itemNames)) {
+            for (int i = size - 1; i >= 0; i--) writer.Text(index.itemsets[i], index.counts[i], total);//Ascending support like the normal output
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (rules != null) Print_Rules(rules, total, minCount);
+    }
+
+    public static void Serve(Lattice lattice, int port) {//GET /support, /subsets, /supersets and /rules, every one takes items=a,b,c
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+            server.createContext("/support", exchange -> Answer(exchange, lattice, (items, query) -> {
+                int count = lattice.Support(items);
+                return count == 0 ? null : To_Names(new Itemset(items)) + " " + String.format("%.8f", (double) count/lattice.total) + " " + count + "\n";
+            }));
+            server.createContext("/subsets", exchange -> Answer(exchange, lattice, (items, query) -> {
+                StringBuilder body = new StringBuilder();
+                for (int[] subset : lattice.Subsets(items)) body.append(To_Names(new Itemset(subset))).append(' ').append(String.format("%.8f", (double) lattice.Support(subset)/lattice.total)).append('\n');
+                return body.toString();
+            }));
+            server.createContext("/supersets", exchange -> Answer(exchange, lattice, (items, query) -> {
+                StringBuilder body = new StringBuilder();
+                for (int i : lattice.Supersets(items)) body.append(To_Names(new Itemset(lattice.itemsets[i]))).append(' ').append(String.format("%.8f", (double) lattice.counts[i]/lattice.total)).append('\n');
+                return body.toString();
+            }));
+            server.createContext("/rules", exchange -> Answer(exchange, lattice, (items, query) -> {//Rules with the query as X, confidence=C filters them
+                int antecedentCount = lattice.Support(items);
+                if (antecedentCount == 0) return null;
+                double minConfidence = Double.parseDouble(query.getOrDefault("confidence", "0"));
+                List<Rule> rules = new ArrayList<>();
+                for (int i : lattice.Supersets(items)) {
+                    int[] itemset = lattice.itemsets[i];
+                    if (itemset.length == items.length) continue;
+                    double confidence = (double) lattice.counts[i] / antecedentCount;
+                    if (confidence < minConfidence) continue;
+                    int[] consequent = new int[itemset.length - items.length];
+                    int size = 0, j = 0;
+                    for (int item : itemset) {
+                        if (j < items.length && items[j] == item) j++;
+                        else consequent[size++] = item;
+                    }
+                    int consequentCount = lattice.Support(consequent);
+                    double lift = confidence * lattice.total / consequentCount;
+                    double leverage = (double) lattice.counts[i] / lattice.total - ((double) antecedentCount / lattice.total) * ((double) consequentCount / lattice.total);
+                    rules.add(new Rule(items, consequent, lattice.counts[i], confidence, lift, leverage));
+                }
+                rules.sort((a, b) -> Double.compare(b.confidence, a.confidence));
+                StringBuilder body = new StringBuilder();
+                for (Rule rule : rules) body.append(Format_Rule(rule, lattice.total)).append('\n');
+                return body.toString();
+            }));
+            server.setExecutor(Executors.newFixedThreadPool(Math.max(threads, Runtime.getRuntime().availableProcessors())));
+            server.start();
+            System.err.println("Serving " + lattice.itemsets.length + " itemsets on http://127.0.0.1:" + port);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    interface Query {
+        String Answer(int[] items, Map<String, String> query);//null means 404
+    }
+
+    private static void Answer(HttpExchange exchange, Lattice lattice, Query handler) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
 
-        for (int i = start; i < array.length; i++) {//Implemented by recursively checking for one place to visit
-            visited[i] = true;
-            Make_Comb(array, visited, i + 1, r - 1);
-            visited[i] = false;
+        int status = 200;
+        String body;
+        String names = query.getOrDefault("items", "");
+        int[] items = new int[0];
+        boolean known = true;
+        if (!names.isEmpty()) {
+            String[] split = names.split(",");
+            items = new int[split.length];
+            for (int i = 0; i < split.length; i++) {
+                Integer id = itemIds.get(split[i]);
+                if (id == null) {
+                    known = false;
+                    break;
+                }
+                items[i] = id;
+            }
+            Arrays.sort(items);
+            int size = 0;
+            for (int item : items) {//items=a,a is the itemset {a}
+                if (size == 0 || items[size - 1] != item) items[size++] = item;
+            }
+            items = Arrays.copyOf(items, size);
+        }
+        try {
+            body = known ? handler.Answer(items, query) : null;
+            if (body == null) {
+                status = 404;
+                body = "not frequent\n";
+            }
+        } catch (RuntimeException e) {
+            status = 400;//The exception text is not sent back to the client
+            body = "bad query\n";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
         }
     }
 
-    private static void Add_Comb(String[] array, boolean[] visited) {//Used to store string combinations
-        StringBuilder combination = new StringBuilder();
-        for (int i = 0; i < array.length; i++) {
-            if (visited[i]) {
-                if (combination.length() > 0) combination.append(",");
-                combination.append(array[i]);
+    public static int Coordinator(String csvFile, double number, int workers, Map<Itemset, Integer> result) {//Level-wise mining where every worker JVM counts the candidates on its shard of the file
+        List<Process> processes = new ArrayList<>();
+        List<Socket> sockets = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(1_000);
+            long[] bounds = Shard_Bounds(csvFile, workers);
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            String sourceFile = System.getProperty("jdk.launcher.sourcefile");//Set when run as java Apriori_algorithm.java, Main is then not on the class path
+            if (sourceFile != null) command.add(sourceFile);
+            else command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), "Main"));
+            for (int i = 0; i < workers; i++) {
+                List<String> arguments = new ArrayList<>(command);
+                arguments.addAll(Arrays.asList(csvFile, String.valueOf(number), "worker",
+                        "--port=" + server.getLocalPort(), "--shard=" + i, "--from=" + bounds[i], "--to=" + bounds[i + 1]));
+                ProcessBuilder builder = new ProcessBuilder(arguments);
+                builder.redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectError(ProcessBuilder.Redirect.INHERIT);
+                processes.add(builder.start());
             }
+
+            DataInputStream[] in = new DataInputStream[workers];
+            DataOutputStream[] out = new DataOutputStream[workers];
+            long deadline = System.currentTimeMillis() + 60_000;
+            for (int i = 0; i < workers; i++) {
+                Socket socket = null;
+                while (socket == null) {
+                    try {
+                        socket = server.accept();
+                    } catch (SocketTimeoutException e) {//Check every second that no worker died before connecting
+                        for (Process process : processes) {
+                            if (!process.isAlive()) throw new IllegalStateException("Worker exited with code " + process.exitValue() + " before connecting");
+                        }
+                        if (System.currentTimeMillis() > deadline) throw new IllegalStateException("Workers did not connect within 60 s");
+                    }
+                }
+                sockets.add(socket);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                int shard = input.readInt();//Workers connect in any order, they say which shard they read
+                in[shard] = input;
+                out[shard] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+
+            int total = 0;
+            List<Integer> itemCounts = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {//Shards in file order, so the dictionary is in order of first appearance like readCSV
+                total += in[i].readInt();
+                int items = in[i].readInt();
+                for (int j = 0; j < items; j++) {
+                    String name = in[i].readUTF();
+                    int count = in[i].readInt();
+                    Integer id = itemIds.get(name);
+                    if (id == null) {
+                        id = itemNames.size();
+                        itemIds.put(name, id);
+                        itemNames.add(name);
+                        itemCounts.add(0);
+                    }
+                    itemCounts.set(id, itemCounts.get(id) + count);
+                }
+            }
+            for (DataOutputStream output : out) {
+                output.writeInt(itemNames.size());
+                for (String name : itemNames) output.writeUTF(name);
+                output.flush();
+            }
+
+            double threshold = total * number;
+            HashMap<Itemset, Integer> current = new HashMap<>();
+            for (int item = 0; item < itemCounts.size(); item++) {
+                if (itemCounts.get(item) >= threshold) current.put(new Itemset(new int[]{item}), itemCounts.get(item));
+            }
+            for (int depth = 1; !current.isEmpty(); depth++) {
+                result.putAll(current);
+                List<int[]> candidates = Apriori_Gen(current.keySet(), depth);
+                for (DataOutputStream output : out) {//Broadcast the candidates of the next level
+                    output.writeInt(candidates.size());
+                    for (int[] candidate : candidates) {
+                        for (int item : candidate) output.writeInt(item);
+                    }
+                    output.flush();
+                }
+                int[] counts = new int[candidates.size()];
+                for (DataInputStream input : in) {//Merge the counts of every shard
+                    for (int i = 0; i < counts.length; i++) counts[i] += input.readInt();
+                }
+                current = new HashMap<>();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] >= threshold) current.put(new Itemset(candidates.get(i)), counts[i]);
+                }
+            }
+            for (DataOutputStream output : out) {//No more levels
+                output.writeInt(-1);
+                output.flush();
+            }
+            for (Process process : processes) process.waitFor();
+            return total;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (Process process : processes) process.destroy();
         }
-        if (combination.length() > 0) {
-            combinationList.add(combination.toString());
+    }
+
+    private static long Complete_Lines_End(String csvFile) throws IOException {//Byte offset just after the last newline of the file, 0 if it has none
+        try (RandomAccessFile file = new RandomAccessFile(csvFile, "r")) {
+            byte[] block = new byte[8192];
+            for (long end = file.length(); end > 0; ) {
+                int length = (int) Math.min(block.length, end);
+                file.seek(end - length);
+                file.readFully(block, 0, length);
+                for (int i = length - 1; i >= 0; i--) {
+                    if (block[i] == '\n') return end - length + i + 1;
+                }
+                end -= length;
+            }
+            return 0;
         }
     }
 
-    public static int Counting(String combination, List<List<String>> itemList) {//Compared to minsup when creating a new hashmap
-        List<String> combinationItems = Arrays.asList(combination.split(","));
+    private static long[] Shard_Bounds(String csvFile, int shards) throws IOException {//Byte offsets that cut the file into shards of whole lines
+        long[] bounds = new long[shards + 1];
+        try (RandomAccessFile file = new RandomAccessFile(csvFile, "r")) {
+            long size = file.length();
+            bounds[shards] = size;
+            for (int i = 1; i < shards; i++) {
+                long position = Math.max(bounds[i - 1], size * i / shards);
+                if (position > 0 && position < size) {
+                    file.seek(position - 1);
+                    int b;
+                    while ((b = file.read()) != -1 && b != '\n') position++;//Move to the start of the next line
+                }
+                bounds[i] = Math.min(position, size);
+            }
+        }
+        return bounds;
+    }
+
+    public static void Worker(String csvFile, int port, int shardIndex, long from, long to, long chunkBytes) {//Reads its shard, then counts every candidate list the coordinator sends until it gets -1
+        List<int[]> shard = new ArrayList<>();
+        int size = Read_Chunks(csvFile, from, to, chunkBytes, shard::addAll);
+        int[] counts = new int[itemNames.size()];
+        for (int[] items : shard) {
+            for (int item : items) counts[item]++;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(shardIndex);
+            out.writeInt(size);
+            out.writeInt(itemNames.size());
+            for (int item = 0; item < itemNames.size(); item++) {
+                out.writeUTF(itemNames.get(item));
+                out.writeInt(counts[item]);
+            }
+            out.flush();
+
+            int items = in.readInt();//Global dictionary, local ids are translated to it
+            HashMap<String, Integer> global = new HashMap<>();
+            for (int i = 0; i < items; i++) global.put(in.readUTF(), i);
+            int[] translate = new int[itemNames.size()];
+            for (int item = 0; item < translate.length; item++) translate[item] = global.get(itemNames.get(item));
+            for (int[] row : shard) {
+                for (int i = 0; i < row.length; i++) row[i] = translate[row[i]];
+                Arrays.sort(row);
+            }
+
+            for (int depth = 2; ; depth++) {
+                int candidateCount = in.readInt();
+                if (candidateCount < 0) break;
+                List<int[]> candidates = new ArrayList<>(candidateCount);
+                for (int i = 0; i < candidateCount; i++) {
+                    int[] candidate = new int[depth];
+                    for (int j = 0; j < depth; j++) candidate[j] = in.readInt();
+                    candidates.add(candidate);
+                }
+                for (int count : Counting(candidates, shard)) out.writeInt(count);
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+class Itemset {//Sorted item ids of one itemset, used as the key of the hashmaps instead of a comma-joined string
+    final int[] items;
+    private final int hash;
+
+    Itemset(int[] items) {
+        this.items = items;
+        this.hash = Arrays.hashCode(items);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Itemset && Arrays.equals(items, ((Itemset) o).items);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
+
+class CandidateTrie {//Prefix trie over the candidates, one walk of a transaction counts every candidate it contains
+    private static class Node {
+        private static final int[] NO_KEYS = new int[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        int[] keys = NO_KEYS;//Sorted child items, the first count are used
+        Node[] children = NO_CHILDREN;
         int count = 0;
-        for (List<String> items : itemList) {
-            if (items.containsAll(combinationItems)) count++;
+        int candidate = -1;//Index of the candidate ending here
+        int shortest = Integer.MAX_VALUE;//Items still needed to reach the nearest candidate below
+
+        Node Child(int item) {
+            if (count > 0 && keys[count - 1] == item) return children[count - 1];//Sorted candidates revisit the last child or append a new one
+            int index = count == 0 || item > keys[count - 1] ? -count - 1 : Arrays.binarySearch(keys, 0, count, item);
+            if (index >= 0) return children[index];
+            index = -index - 1;
+            if (count == keys.length) {//Capacity doubles, so building a node is linear in its fan-out
+                int capacity = Math.max(2, count * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, index, keys, index + 1, count - index);
+            System.arraycopy(children, index, children, index + 1, count - index);
+            keys[index] = item;
+            children[index] = new Node();
+            count++;
+            return children[index];
+        }
+    }
+
+    private final Node root = new Node();
+    private int size = 0;
+
+    CandidateTrie(List<int[]> candidates) {
+        for (int[] candidate : candidates) Add(candidate);
+    }
+
+    int Add(int[] candidate) {//Candidates get the index of their insertion order
+        Node node = root;
+        for (int depth = 0; depth < candidate.length; depth++) {
+            node.shortest = Math.min(node.shortest, candidate.length - depth);
+            node = node.Child(candidate[depth]);
+        }
+        if (node.candidate < 0) node.candidate = size++;
+        return node.candidate;
+    }
+
+    int Size() {
+        return size;
+    }
+
+    void Count(int[] transaction, int weight, int[] counts) {//The transaction must be sorted like the candidates
+        Walk(root, transaction, 0, weight, counts);
+    }
+
+    private static void Walk(Node node, int[] transaction, int start, int weight, int[] counts) {
+        if (node.candidate >= 0) counts[node.candidate] += weight;
+        int[] keys = node.keys;
+        int i = start, j = 0, count = node.count;
+        while (j < count && transaction.length - i >= node.shortest) {//Stop when the rest of the transaction is too short for any candidate below
+            if (transaction[i] < keys[j]) i++;
+            else if (transaction[i] > keys[j]) j++;
+            else Walk(node.children[j++], transaction, ++i, weight, counts);
+        }
+    }
+}
+
+class TidBitmap {//Compressed bitset of transaction ids, only the 64-bit words that have a bit set are stored
+    int[] keys = new int[4];//Word index (tid / 64) of every stored word, ascending
+    long[] words = new long[4];
+    int size = 0;//Number of stored words
+    int cardinality = 0;//Number of transactions in the set
+
+    void Add(int tid) {//Tids must be added in ascending order
+        int key = tid >>> 6;
+        if (size == 0 || keys[size - 1] != key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                words = Arrays.copyOf(words, size * 2);
+            }
+            keys[size] = key;
+            words[size++] = 0L;
+        }
+        long bit = 1L << tid;
+        if ((words[size - 1] & bit) == 0) {
+            words[size - 1] |= bit;
+            cardinality++;
+        }
+    }
+
+    int Hash() {//Same transactions give the same hash
+        int hash = cardinality;
+        for (int i = 0; i < size; i++) hash = 31 * (31 * hash + keys[i]) + Long.hashCode(words[i]);
+        return hash;
+    }
+
+    TidBitmap And(TidBitmap other) {//Intersection by word-level AND, the support is the popcount of the result
+        TidBitmap result = new TidBitmap();
+        int capacity = Math.max(1, Math.min(size, other.size));
+        result.keys = new int[capacity];
+        result.words = new long[capacity];
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (keys[i] > other.keys[j]) j++;
+            else {
+                long word = words[i++] & other.words[j++];
+                if (word != 0) {
+                    result.keys[result.size] = keys[i - 1];
+                    result.words[result.size++] = word;
+                    result.cardinality += Long.bitCount(word);
+                }
+            }
+        }
+        return result;
+    }
+}
+
+class FPTree {//Compressed prefix tree of transactions, items of a path are in the same global order
+    static class Node {
+        int item;
+        int count;
+        Node parent;
+        Node child;//First child, the other children are chained by sibling
+        Node sibling;
+        Node link;//Next node of the same item
+    }
+
+    final Node root = new Node();
+    final Node[] heads;//First node of every item
+    final int[] counts;//Total count of every item in this tree
+    int[] items = new int[8];//Items that appear in this tree, in order of first insertion
+    int size = 0;
+
+    FPTree(int itemCount) {
+        heads = new Node[itemCount];
+        counts = new int[itemCount];
+    }
+
+    void Insert(int[] path, int length, int count) {//Add one path, sharing the prefix that is already in the tree
+        Node node = root;
+        for (int i = 0; i < length; i++) {
+            int item = path[i];
+            Node next = node.child;
+            while (next != null && next.item != item) next = next.sibling;
+            if (next == null) {
+                next = new Node();
+                next.item = item;
+                next.parent = node;
+                next.sibling = node.child;
+                node.child = next;
+                if (heads[item] == null) {
+                    if (size == items.length) items = Arrays.copyOf(items, size * 2);
+                    items[size++] = item;
+                }
+                next.link = heads[item];
+                heads[item] = next;
+            }
+            next.count += count;
+            counts[item] += count;
+            node = next;
+        }
+    }
+}
+
+class CountTask extends RecursiveTask<int[]> {//Counts the candidates over one chunk of transactions, every worker has its own counters
+    private static final long serialVersionUID = 1L;
+    private final CandidateTrie trie;
+    private final List<int[]> itemList;
+    private final int[] weights;//How many baskets every transaction stands for, null when each is one basket
+    private final int from, to, chunk;
+
+    CountTask(CandidateTrie trie, List<int[]> itemList, int[] weights, int from, int to, int chunk) {
+        this.trie = trie;
+        this.itemList = itemList;
+        this.weights = weights;
+        this.from = from;
+        this.to = to;
+        this.chunk = chunk;
+    }
+
+    @Override
+    protected int[] compute() {
+        if (to - from <= chunk) {
+            int[] counts = new int[trie.Size()];
+            for (int i = from; i < to; i++) trie.Count(itemList.get(i), weights == null ? 1 : weights[i], counts);
+            return counts;
+        }
+        int middle = (from + to) >>> 1;
+        CountTask left = new CountTask(trie, itemList, weights, from, middle, chunk);
+        left.fork();
+        int[] counts = new CountTask(trie, itemList, weights, middle, to, chunk).compute();
+        int[] leftCounts = left.join();
+        for (int i = 0; i < counts.length; i++) counts[i] += leftCounts[i];//Integer sums, so the merge order does not change the result
+        return counts;
+    }
+}
+
+class Rule {//X => Y with the measures computed from the supports of the frequent itemsets
+    final int[] antecedent;
+    final int[] consequent;
+    final int count;//Support count of X and Y together
+    final double confidence;
+    final double lift;
+    final double leverage;
+
+    Rule(int[] antecedent, int[] consequent, int count, double confidence, double lift, double leverage) {
+        this.antecedent = antecedent;
+        this.consequent = consequent;
+        this.count = count;
+        this.confidence = confidence;
+        this.lift = lift;
+        this.leverage = leverage;
+    }
+}
+
+class Baskets {//Transactions left for the next level, identical ones are kept once with their number as weight
+    final List<int[]> rows;
+    final int[] weights;
+    final boolean merging;//False once merging stopped paying off, then later levels only trim
+
+    Baskets(List<int[]> rows, int[] weights, boolean merging) {
+        this.rows = rows;
+        this.weights = weights;
+        this.merging = merging;
+    }
+}
+
+class SupportIndex {//Frequent itemsets sorted by support, every higher threshold is a prefix of the arrays
+    final int[][] itemsets;
+    final int[] counts;
+
+    SupportIndex(Map<Itemset, Integer> frequent) {
+        List<Map.Entry<Itemset, Integer>> entries = new ArrayList<>(frequent.entrySet());
+        entries.sort((a, b) -> {//Highest support first, ties by descending item ids so a reversed prefix prints like main
+            if (!a.getValue().equals(b.getValue())) return b.getValue() - a.getValue();
+            return Arrays.compare(b.getKey().items, a.getKey().items);
+        });
+        itemsets = new int[entries.size()][];
+        counts = new int[entries.size()];
+        for (int i = 0; i < counts.length; i++) {
+            itemsets[i] = entries.get(i).getKey().items;
+            counts[i] = entries.get(i).getValue();
+        }
+    }
+
+    int Count_At_Least(double minCount) {//Binary search for the number of itemsets with support >= minCount
+        int low = 0, high = counts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (counts[middle] >= minCount) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+}
+
+class ResultWriter implements AutoCloseable {//Writes itemsets through one large buffer, numbers are formatted by hand
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final byte[][] names;//UTF-8 bytes of every item, encoded once
+
+    ResultWriter(WritableByteChannel channel, List<String> itemNames) {
+        this.channel = channel;
+        names = new byte[itemNames.size()][];
+        for (int i = 0; i < names.length; i++) names[i] = itemNames.get(i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static WritableByteChannel Console() {//Standard output without the PrintStream in between, it is not closed with the writer
+        FileChannel channel = new FileOutputStream(FileDescriptor.out).getChannel();
+        return new WritableByteChannel() {
+            public int write(ByteBuffer source) throws IOException {
+                return channel.write(source);
+            }
+
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    void Text(int[] itemset, int count, int total) throws IOException {//Same text as String.format("%.8f"): names, a space and the support rounded half up
+        for (int i = 0; i < itemset.length; i++) {
+            if (i > 0) Put((byte) ',');
+            Put(names[itemset[i]]);
+        }
+        Put((byte) ' ');
+        long scaled = (count * 200_000_000L + total) / (2L * total);//count / total * 10^8, rounded half up without a double
+        Put_Digits(scaled / 100_000_000L, 1);
+        Put((byte) '.');
+        Put_Digits(scaled % 100_000_000L, 8);
+        Put((byte) '\n');
+    }
+
+    void Binary_Header(int total, long size) throws IOException {//Magic, transactions, dictionary and number of itemsets
+        Put_Int(0x46495331);//"FIS1"
+        Put_Int(total);
+        Put_Int(names.length);
+        for (byte[] name : names) {
+            Put_Int(name.length);
+            Put(name);
+        }
+        Ensure(8);
+        buffer.putLong(size);
+    }
+
+    void Binary(int[] itemset, int count) throws IOException {//Length, item ids and support count as big-endian ints
+        Put_Int(itemset.length);
+        for (int item : itemset) Put_Int(item);
+        Put_Int(count);
+    }
+
+    private void Put_Digits(long value, int width) throws IOException {
+        int length = Math.max(width, value == 0 ? 1 : (int) Math.log10(value) + 1);
+        Ensure(length);
+        for (int i = length - 1; i >= 0; i--) {
+            buffer.put(buffer.position() + i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    private void Put_Int(int value) throws IOException {
+        Ensure(4);
+        buffer.putInt(value);
+    }
+
+    private void Put(byte value) throws IOException {
+        Ensure(1);
+        buffer.put(value);
+    }
+
+    private void Put(byte[] bytes) throws IOException {
+        for (int offset = 0; offset < bytes.length; ) {
+            Ensure(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void Ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) Flush();
+    }
+
+    private void Flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Flush();
+        channel.close();
+    }
+}
+
+class Lattice {//Frequent itemsets kept for queries, nothing changes after the constructor so readers need no locks
+    final HashMap<Itemset, Integer> supports;
+    final int[][] itemsets;
+    final int[] counts;
+    final int[][] containing;//Indexes of the itemsets that contain each item, ascending
+    final int total;
+
+    Lattice(Map<Itemset, Integer> frequent, int total) {
+        this.total = total;
+        supports = new HashMap<>(frequent);
+        itemsets = new int[frequent.size()][];
+        counts = new int[frequent.size()];
+        int[] sizes = new int[Main.itemNames.size()];
+        int n = 0;
+        for (Map.Entry<Itemset, Integer> entry : frequent.entrySet()) {
+            itemsets[n] = entry.getKey().items;
+            counts[n++] = entry.getValue();
+            for (int item : entry.getKey().items) sizes[item]++;
+        }
+        containing = new int[sizes.length][];
+        for (int item = 0; item < sizes.length; item++) containing[item] = new int[sizes[item]];
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < itemsets.length; i++) {
+            for (int item : itemsets[i]) containing[item][sizes[item]++] = i;
+        }
+    }
+
+    int Support(int[] itemset) {//0 when it is not frequent
+        Integer count = supports.get(new Itemset(itemset));
+        return count == null ? 0 : count;
+    }
+
+    List<Integer> Supersets(int[] itemset) {//Walk the shortest posting list of the query items
+        List<Integer> result = new ArrayList<>();
+        if (itemset.length == 0) {
+            for (int i = 0; i < itemsets.length; i++) result.add(i);
+            return result;
+        }
+        int[] shortest = containing[itemset[0]];
+        for (int item : itemset) {
+            if (containing[item].length < shortest.length) shortest = containing[item];
+        }
+        for (int i : shortest) {
+            if (Main.Contains(itemsets[i], itemset)) result.add(i);
+        }
+        return result;
+    }
+
+    List<int[]> Subsets(int[] itemset) {//Frequent non-empty subsets, found by walking the subsets that stay frequent
+        List<int[]> result = new ArrayList<>();
+        Subsets(itemset, 0, new int[itemset.length], 0, result);
+        return result;
+    }
+
+    private void Subsets(int[] itemset, int start, int[] current, int size, List<int[]> result) {
+        for (int i = start; i < itemset.length; i++) {
+            current[size] = itemset[i];
+            int[] subset = Arrays.copyOf(current, size + 1);
+            if (Support(subset) == 0) continue;//No superset of an infrequent itemset is frequent
+            result.add(subset);
+            Subsets(itemset, i + 1, current, size + 1, result);
         }
-        return count;
     }
 }
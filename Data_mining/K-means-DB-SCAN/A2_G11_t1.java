@@ -2,58 +2,264 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class Points { // Points stored column by column, point i is (x[i], y[i]).
+    String[] names = new String[16];
+    double[] x = new double[16];
+    double[] y = new double[16];
+    int size;
+
+    void add(String name, double px, double py) {
+        if (size == x.length) {
+            names = Arrays.copyOf(names, size * 2);
+            x = Arrays.copyOf(x, size * 2);
+            y = Arrays.copyOf(y, size * 2);
+        }
+        names[size] = name;
+        x[size] = px;
+        y[size] = py;
+        size++;
+    }
+}
+
+class KdTree { // k-d tree over the points for the filtering algorithm, nodes stored in parallel arrays.
+    static final int LEAF_SIZE = 8;
+
+    int[] order; // Point index of each tree position, every node covers a range of positions
+    double[] x, y; // Coordinates in tree order
+    int[] from, to, left, right; // Range of a node and its children, -1 for a leaf
+    double[] minX, maxX, minY, maxY; // Bounding box of a node
+    double[] sumX, sumY; // Coordinate sums of a node
+    int nodes, depth;
+
+    KdTree(Points points) {
+        int n = points.size;
+        order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int capacity = 4 * n / LEAF_SIZE + 2; // Leaves hold at least LEAF_SIZE / 2 points
+        from = new int[capacity];
+        to = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        minX = new double[capacity];
+        maxX = new double[capacity];
+        minY = new double[capacity];
+        maxY = new double[capacity];
+        sumX = new double[capacity];
+        sumY = new double[capacity];
+        build(points, 0, n, 1);
+        x = new double[n];
+        y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = points.x[order[i]];
+            y[i] = points.y[order[i]];
+        }
+    }
+
+    private int build(Points points, int lo, int hi, int level) { // Splits at the median of the wider side of the box.
+        int node = nodes++;
+        depth = Math.max(depth, level);
+        from[node] = lo;
+        to[node] = hi;
+        minX[node] = minY[node] = Double.MAX_VALUE;
+        maxX[node] = maxY[node] = -Double.MAX_VALUE;
+        for (int i = lo; i < hi; i++) {
+            double px = points.x[order[i]], py = points.y[order[i]];
+            minX[node] = Math.min(minX[node], px);
+            maxX[node] = Math.max(maxX[node], px);
+            minY[node] = Math.min(minY[node], py);
+            maxY[node] = Math.max(maxY[node], py);
+            sumX[node] += px;
+            sumY[node] += py;
+        }
+        if (hi - lo <= LEAF_SIZE) {
+            left[node] = right[node] = -1;
+            return node;
+        }
+        double[] key = maxX[node] - minX[node] >= maxY[node] - minY[node] ? points.x : points.y;
+        int mid = (lo + hi) >>> 1;
+        select(key, lo, hi - 1, mid);
+        left[node] = build(points, lo, mid, level + 1);
+        right[node] = build(points, mid, hi, level + 1);
+        return node;
+    }
+
+    private void select(double[] key, int lo, int hi, int k) { // Quickselect on order[lo..hi] so position k holds the k-th smallest key.
+        while (lo < hi) {
+            double pivot = key[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (key[order[i]] < pivot) i++;
+                while (key[order[j]] > pivot) j--;
+                if (i <= j) {
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
 
-class Point {
-    String name;
-    double x;
-    double y;
-    boolean centroid;
+class AssignTask extends RecursiveAction { // Assigns blocks of points to their nearest centroid on a fork-join pool, each block keeps its own cluster sums.
+    private static final long serialVersionUID = 1L;
+    static final int BLOCK = 1 << 14; // Points per block. Fixed, so the sums do not depend on the number of threads
+    static final ForkJoinPool POOL = new ForkJoinPool(Integer.getInteger("threads", Runtime.getRuntime().availableProcessors()));
 
-    Point(String name, double x, double y, boolean centroid) {
-        this.name = name;
+    final double[] x, y, centroidX, centroidY;
+    final int[] labels;
+    final double[][] blockX, blockY; // Cluster sums of each block
+    final int[][] blockCount;
+    final int from, to; // Range of blocks
+
+    AssignTask(double[] x, double[] y, double[] centroidX, double[] centroidY, int[] labels,
+               double[][] blockX, double[][] blockY, int[][] blockCount, int from, int to) {
         this.x = x;
         this.y = y;
-        this.centroid = centroid;
+        this.centroidX = centroidX;
+        this.centroidY = centroidY;
+        this.labels = labels;
+        this.blockX = blockX;
+        this.blockY = blockY;
+        this.blockCount = blockCount;
+        this.from = from;
+        this.to = to;
+    }
+
+    static void assign(double[] x, double[] y, double[] centroidX, double[] centroidY, int[] labels,
+                       double[] sumX, double[] sumY, int[] count) { // Labels every point and sums the clusters, block sums are added in block order
+        int numClusters = centroidX.length;
+        int blocks = Math.max(1, (labels.length + BLOCK - 1) / BLOCK);
+        double[][] blockX = new double[blocks][numClusters];
+        double[][] blockY = new double[blocks][numClusters];
+        int[][] blockCount = new int[blocks][numClusters];
+        POOL.invoke(new AssignTask(x, y, centroidX, centroidY, labels, blockX, blockY, blockCount, 0, blocks));
+
+        for (int i = 0; i < numClusters; i++) {
+            sumX[i] = 0;
+            sumY[i] = 0;
+            count[i] = 0;
+            for (int b = 0; b < blocks; b++) {
+                sumX[i] += blockX[b][i];
+                sumY[i] += blockY[b][i];
+                count[i] += blockCount[b][i];
+            }
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > 1) {
+            int mid = (from + to) >>> 1;
+            invokeAll(new AssignTask(x, y, centroidX, centroidY, labels, blockX, blockY, blockCount, from, mid),
+                      new AssignTask(x, y, centroidX, centroidY, labels, blockX, blockY, blockCount, mid, to));
+            return;
+        }
+        double[] sumX = blockX[from], sumY = blockY[from];
+        int[] count = blockCount[from];
+        int end = Math.min(labels.length, (from + 1) * BLOCK);
+        for (int p = from * BLOCK; p < end; p++) {
+            double minDist = Double.MAX_VALUE;
+            int clusterIndex = 0;
+            for (int i = 0; i < centroidX.length; i++) {
+                double dist = Math.sqrt((x[p] - centroidX[i]) * (x[p] - centroidX[i]) + (y[p] - centroidY[i]) * (y[p] - centroidY[i]));
+                if (dist < minDist) {
+                    minDist = dist;
+                    clusterIndex = i;
+                }
+            }
+            labels[p] = clusterIndex;
+            sumX[clusterIndex] += x[p];
+            sumY[clusterIndex] += y[p];
+            count[clusterIndex]++;
+        }
     }
 }
 
 public class A2_G11_t1 {
 
+    static final String[] MODES = {"lloyd", "hamerly", "elkan", "kdtree", "parallel", "minibatch"};
+    static long distanceCount; // Point to centroid and centroid to centroid distances computed by kMeans
+
     public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java A2_G11_t1 <file_path> [k] [mode]    mode: " + String.join(", ", MODES));
+            return;
+        }
         String csvFile = args[0];
         int numClusters = -1;
+        String mode = "lloyd";
+
+        for (int i = 1; i < args.length; i++) { // An integer is k (-1 estimates it), a word is the assignment mode
+            if (args[i].matches("-?\\d{1,9}")) {
+                numClusters = Integer.parseInt(args[i]);
+                if (numClusters < 1 && numClusters != -1) {
+                    System.out.println("Invalid parameter: " + args[i]);
+                    return;
+                }
+            } else if (Arrays.asList(MODES).contains(args[i])) {
+                mode = args[i];
+            } else {
+                System.out.println("Invalid parameter: " + args[i]);
+                return;
+            }
+        }
 
-        if (args.length > 1) {
-            numClusters = Integer.parseInt(args[1]);
+        for (String property : new String[] {"threads", "batch", "patience"}) { // The -D options of parallel and minibatch are positive integers
+            String value = System.getProperty(property);
+            if (value != null && !value.matches("[1-9]\\d{0,8}")) {
+                System.out.println("Invalid parameter: -D" + property + "=" + value);
+                return;
+            }
         }
 
-        List<Point> points = readCSV(csvFile);
+        Points points = readCSV(csvFile);
 
         boolean estimatedK = false;
         if (numClusters == -1) {
-            numClusters = findOptimalK(points);
+            numClusters = findOptimalK(points, mode);
             estimatedK = true;
         }
 
-        List<List<Point>> clusters = kMeans(points, numClusters);
+        distanceCount = 0;
+        List<List<String>> clusters = clusters(points, kMeans(points, numClusters, mode), numClusters);
 
         if (estimatedK) {
             System.out.println("Estimated k: " + numClusters);
         }
 
+        StringBuilder line = new StringBuilder();
         for (int i = 0; i < clusters.size(); i++) {
-            System.out.print("Cluster #" + (i + 1) + " => ");
-            for (Point p : clusters.get(i)) {
-                System.out.print(p.name + " ");
+            line.setLength(0);
+            line.append("Cluster #").append(i + 1).append(" => ");
+            for (String name : clusters.get(i)) {
+                line.append(name).append(' ');
             }
-            System.out.println();
+            System.out.println(line);
+        }
+        if (System.getProperty("stats") != null) { // -Dstats prints how many distances the mode computed
+            System.err.println("Distance evaluations: " + distanceCount);
         }
     }
 
-    private static List<Point> readCSV(String csvFile) {//Reading a CSV file.
-        List<Point> points = new ArrayList<>();
+    private static Points readCSV(String csvFile) {//Reading a CSV file.
+        Points points = new Points();
         String line;
         try (BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
             while ((line = br.readLine()) != null) {
@@ -61,7 +267,7 @@ public class A2_G11_t1 {
                 String name = values[0].trim();
                 double x = Double.parseDouble(values[1].trim());
                 double y = Double.parseDouble(values[2].trim());
-                points.add(new Point(name, x, y, false));
+                points.add(name, x, y);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -69,13 +275,13 @@ public class A2_G11_t1 {
         return points;
     }
 
-    private static int findOptimalK(List<Point> points) {// A function to find the optimal k.
+    private static int findOptimalK(Points points, String mode) {// A function to find the optimal k.
         int maxK = 35;
         double[] silhouetteScores = new double[maxK];
 
         for (int k = 2; k <= maxK; k++) {
-            List<List<Point>> clusters = kMeans(points, k);
-            silhouetteScores[k - 2] = calculateSilhouetteScore(clusters);
+            int[] labels = kMeans(points, k, mode);
+            silhouetteScores[k - 2] = calculateSilhouetteScore(points, labels, k);
         }
 
         int optimalK = 2;
@@ -90,132 +296,491 @@ public class A2_G11_t1 {
         return optimalK;
     }
 
-    private static double calculateSilhouetteScore(List<List<Point>> clusters) { // Silhouette method for determining the optimal k.
+    private static double calculateSilhouetteScore(Points points, int[] labels, int numClusters) { // Silhouette method for determining the optimal k.
         double totalSilhouetteScore = 0.0;
-        int totalPoints = 0;
-
-        for (List<Point> cluster : clusters) {
-            for (Point point : cluster) {
-                double a = calculateAverageDistance(point, cluster);
-                double b = Double.MAX_VALUE;
-                for (List<Point> otherCluster : clusters) {
-                    if (otherCluster != cluster) {
-                        double distance = calculateAverageDistance(point, otherCluster);
-                        if (distance < b) {
-                            b = distance;
-                        }
+        int[] size = new int[numClusters];
+        for (int i = 0; i < points.size; i++) {
+            size[labels[i]]++;
+        }
+
+        double[] sumDistance = new double[numClusters];
+        for (int i = 0; i < points.size; i++) {
+            Arrays.fill(sumDistance, 0.0);
+            for (int j = 0; j < points.size; j++) { // Sum of distances from point i to every cluster, in point order
+                if (i != j) {
+                    sumDistance[labels[j]] += distance(points.x[i], points.y[i], points.x[j], points.y[j]);
+                }
+            }
+            double a = sumDistance[labels[i]] / (size[labels[i]] - 1);
+            double b = Double.MAX_VALUE;
+            for (int c = 0; c < numClusters; c++) {
+                if (c != labels[i]) {
+                    double distance = sumDistance[c] / (size[c] - 1);
+                    if (distance < b) {
+                        b = distance;
                     }
                 }
-                totalSilhouetteScore += (b - a) / Math.max(a, b);
             }
-            totalPoints += cluster.size();
+            totalSilhouetteScore += (b - a) / Math.max(a, b);
         }
 
-        return totalSilhouetteScore / totalPoints;
+        return totalSilhouetteScore / points.size;
+    }
+
+    private static int[] kMeans(Points points, int numClusters, String mode) {//Implementing k-means++ algorithm. Returns the cluster of each point.
+        double[] centroidX = new double[numClusters];
+        double[] centroidY = new double[numClusters];
+        Random rand = new Random();
+        seed(points, numClusters, rand, centroidX, centroidY);
+
+        int[] labels = new int[points.size];
+        switch (mode) {
+            case "hamerly":
+                hamerly(points, centroidX, centroidY, labels);
+                break;
+            case "elkan":
+                elkan(points, centroidX, centroidY, labels);
+                break;
+            case "kdtree":
+                kdTree(points, centroidX, centroidY, labels);
+                break;
+            case "parallel":
+                parallel(points, centroidX, centroidY, labels);
+                break;
+            case "minibatch":
+                miniBatch(points, centroidX, centroidY, labels, rand);
+                break;
+            default:
+                lloyd(points, centroidX, centroidY, labels);
+        }
+        return labels;
     }
 
-    private static double calculateAverageDistance(Point point, List<Point> cluster) {// Calculate average distance
-        double sumDistance = 0.0;
-        for (Point otherPoint : cluster) {
-            if (point != otherPoint) {
-                sumDistance += distance(point, otherPoint);
+    private static void lloyd(Points points, double[] centroidX, double[] centroidY, int[] labels) { // Plain Lloyd iterations, every point against every centroid.
+        int n = points.size, numClusters = centroidX.length;
+        double[] sumX = new double[numClusters];
+        double[] sumY = new double[numClusters];
+        int[] count = new int[numClusters];
+        double[] x = points.x, y = points.y;
+
+        boolean converged = false;
+        while (!converged) {
+            for (int p = 0; p < n; p++) {
+                double minDist = Double.MAX_VALUE;
+                int clusterIndex = 0;
+                for (int i = 0; i < numClusters; i++) {
+                    double dist = distance(x[p], y[p], centroidX[i], centroidY[i]);
+                    if (dist < minDist) {
+                        minDist = dist;
+                        clusterIndex = i;
+                    }
+                }
+                labels[p] = clusterIndex;
             }
+            distanceCount += (long) n * numClusters;
+
+            sumClusters(points, labels, sumX, sumY, count);
+            converged = !moveCentroids(sumX, sumY, count, centroidX, centroidY, null);
         }
-        return sumDistance / (cluster.size() - 1);
     }
 
-    private static List<List<Point>> kMeans(List<Point> points, int numClusters) {//Implementing k-means++ algorithm.
-        List<Point> centroids = new ArrayList<>();
-        Random rand = new Random();
+    private static void parallel(Points points, double[] centroidX, double[] centroidY, int[] labels) { // Lloyd with the assignment split over a fork-join pool (-Dthreads, default all cores).
+        int numClusters = centroidX.length;
+        double[] sumX = new double[numClusters];
+        double[] sumY = new double[numClusters];
+        int[] count = new int[numClusters];
 
-        // KMeans++ initialization
-        Point firstCentroid = points.get(rand.nextInt(points.size()));
-        centroids.add(firstCentroid);
-        
-        for (int i = 1; i < numClusters; i++) {
-            double[] distances = new double[points.size()];
-            double totalDistance = 0.0;
+        boolean converged = false;
+        while (!converged) {
+            AssignTask.assign(points.x, points.y, centroidX, centroidY, labels, sumX, sumY, count);
+            distanceCount += (long) points.size * numClusters;
+            converged = !moveCentroids(sumX, sumY, count, centroidX, centroidY, null);
+        }
+    }
 
-            for (int j = 0; j < points.size(); j++) {
-                Point point = points.get(j);
+    private static void miniBatch(Points points, double[] centroidX, double[] centroidY, int[] labels, Random rand) { // Mini-batch k-means (Sculley): -Dbatch points per step, stops after -Dpatience steps without a better smoothed inertia.
+        int n = points.size, numClusters = centroidX.length;
+        int batch = Math.min(n, Integer.getInteger("batch", 1024));
+        int patience = Integer.getInteger("patience", 10);
+        long maxSteps = 100L * ((n + batch - 1) / batch); // At most 100 passes over the data
+        double alpha = Math.min(1.0, 2.0 * batch / (n + 1)); // Weight of a step in the smoothed inertia, about one pass
+        double[] x = points.x, y = points.y;
+        int[] sample = new int[batch];
+        int[] nearest = new int[batch];
+        long[] seen = new long[numClusters]; // Points each centroid has learned from, its learning rate is 1 / seen
+
+        double smoothed = Double.NaN, best = Double.MAX_VALUE;
+        int noImprovement = 0;
+        for (long step = 0; step < maxSteps && noImprovement < patience; step++) {
+            double inertia = 0.0;
+            for (int b = 0; b < batch; b++) { // Assign a random batch against the current centroids
+                int p = rand.nextInt(n);
                 double minDist = Double.MAX_VALUE;
-                for (Point centroid : centroids) {
-                    double dist = distance(point, centroid);
+                int clusterIndex = 0;
+                for (int i = 0; i < numClusters; i++) {
+                    double dist = (x[p] - centroidX[i]) * (x[p] - centroidX[i]) + (y[p] - centroidY[i]) * (y[p] - centroidY[i]);
                     if (dist < minDist) {
                         minDist = dist;
+                        clusterIndex = i;
                     }
                 }
-                distances[j] = minDist * minDist; // Square of distance
-                totalDistance += distances[j];
+                sample[b] = p;
+                nearest[b] = clusterIndex;
+                inertia += minDist;
             }
+            distanceCount += (long) batch * numClusters;
 
-            double randomValue = rand.nextDouble() * totalDistance;
-            double cumulativeDistance = 0.0;
+            for (int b = 0; b < batch; b++) { // Move each centroid toward its points by its own learning rate
+                int c = nearest[b];
+                double eta = 1.0 / ++seen[c];
+                centroidX[c] += eta * (x[sample[b]] - centroidX[c]);
+                centroidY[c] += eta * (y[sample[b]] - centroidY[c]);
+            }
 
-            for (int j = 0; j < points.size(); j++) {
-                cumulativeDistance += distances[j];
-                if (cumulativeDistance >= randomValue) {
-                    centroids.add(points.get(j));
-                    break;
+            inertia /= batch;
+            smoothed = Double.isNaN(smoothed) ? inertia : smoothed + alpha * (inertia - smoothed);
+            if (smoothed < best) {
+                best = smoothed;
+                noImprovement = 0;
+            } else {
+                noImprovement++;
+            }
+        }
+
+        double[] sumX = new double[numClusters]; // One full pass for the labels
+        double[] sumY = new double[numClusters];
+        int[] count = new int[numClusters];
+        AssignTask.assign(x, y, centroidX, centroidY, labels, sumX, sumY, count);
+        distanceCount += (long) n * numClusters;
+    }
+
+    private static void hamerly(Points points, double[] centroidX, double[] centroidY, int[] labels) { // Lloyd with one upper and one lower bound per point (Hamerly).
+        int n = points.size, numClusters = centroidX.length;
+        double[] sumX = new double[numClusters];
+        double[] sumY = new double[numClusters];
+        int[] count = new int[numClusters];
+        double[] shift = new double[numClusters];
+        double[] half = new double[numClusters]; // Half the distance from each centroid to its nearest other centroid
+        double[] upper = new double[n]; // Upper bound of the distance to the assigned centroid
+        double[] lower = new double[n]; // Lower bound of the distance to every other centroid
+        double[] x = points.x, y = points.y;
+        Arrays.fill(upper, Double.MAX_VALUE);
+
+        boolean converged = false;
+        while (!converged) {
+            halfNearest(centroidX, centroidY, null, half);
+            for (int p = 0; p < n; p++) {
+                int a = labels[p];
+                double bound = Math.max(half[a], lower[p]);
+                if (surelyCloser(upper[p], bound)) {
+                    continue;
+                }
+                upper[p] = distance(x[p], y[p], centroidX[a], centroidY[a]);
+                distanceCount++;
+                if (surelyCloser(upper[p], bound)) {
+                    continue;
+                }
+
+                double minDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
+                int clusterIndex = 0;
+                for (int i = 0; i < numClusters; i++) { // Same scan as Lloyd, also keeping the second nearest
+                    double dist = distance(x[p], y[p], centroidX[i], centroidY[i]);
+                    if (dist < minDist) {
+                        secondDist = minDist;
+                        minDist = dist;
+                        clusterIndex = i;
+                    } else if (dist < secondDist) {
+                        secondDist = dist;
+                    }
+                }
+                distanceCount += numClusters;
+                labels[p] = clusterIndex;
+                upper[p] = minDist;
+                lower[p] = secondDist;
+            }
+
+            sumClusters(points, labels, sumX, sumY, count);
+            converged = !moveCentroids(sumX, sumY, count, centroidX, centroidY, shift);
+
+            int farthest = 0; // The two largest shifts bound how much closer any other centroid came
+            double secondShift = 0;
+            for (int i = 1; i < numClusters; i++) {
+                if (shift[i] > shift[farthest]) {
+                    secondShift = shift[farthest];
+                    farthest = i;
+                } else if (shift[i] > secondShift) {
+                    secondShift = shift[i];
+                }
+            }
+            for (int p = 0; p < n; p++) {
+                int a = labels[p];
+                upper[p] += shift[a];
+                lower[p] -= a == farthest ? secondShift : shift[farthest];
+            }
+        }
+    }
+
+    private static void elkan(Points points, double[] centroidX, double[] centroidY, int[] labels) { // Lloyd with a lower bound per point and centroid and the centroid distances (Elkan).
+        int n = points.size, numClusters = centroidX.length;
+        double[] sumX = new double[numClusters];
+        double[] sumY = new double[numClusters];
+        int[] count = new int[numClusters];
+        double[] shift = new double[numClusters];
+        double[] half = new double[numClusters];
+        double[][] halfBetween = new double[numClusters][numClusters]; // Half the distance between two centroids
+        double[] upper = new double[n];
+        double[] lower = new double[n * numClusters]; // lower[p * k + i] bounds the distance from p to centroid i
+        double[] x = points.x, y = points.y;
+        Arrays.fill(upper, Double.MAX_VALUE);
+
+        boolean converged = false;
+        while (!converged) {
+            halfNearest(centroidX, centroidY, halfBetween, half);
+            for (int p = 0; p < n; p++) {
+                int a = labels[p];
+                if (surelyCloser(upper[p], half[a])) {
+                    continue;
+                }
+                int row = p * numClusters;
+                boolean stale = true; // upper[p] is only a bound until recomputed
+                for (int i = 0; i < numClusters; i++) {
+                    if (i == a || surelyCloser(upper[p], Math.max(lower[row + i], halfBetween[a][i]))) {
+                        continue;
+                    }
+                    if (stale) {
+                        upper[p] = distance(x[p], y[p], centroidX[a], centroidY[a]);
+                        lower[row + a] = upper[p];
+                        distanceCount++;
+                        stale = false;
+                        if (surelyCloser(upper[p], Math.max(lower[row + i], halfBetween[a][i]))) {
+                            continue;
+                        }
+                    }
+                    double dist = distance(x[p], y[p], centroidX[i], centroidY[i]);
+                    distanceCount++;
+                    lower[row + i] = dist;
+                    if (dist < upper[p] || (dist == upper[p] && i < a)) { // Ties go to the lower index, as in Lloyd
+                        a = i;
+                        upper[p] = dist;
+                    }
+                }
+                labels[p] = a;
+            }
+
+            sumClusters(points, labels, sumX, sumY, count);
+            converged = !moveCentroids(sumX, sumY, count, centroidX, centroidY, shift);
+
+            for (int p = 0; p < n; p++) {
+                upper[p] += shift[labels[p]];
+                int row = p * numClusters;
+                for (int i = 0; i < numClusters; i++) {
+                    lower[row + i] -= shift[i];
                 }
             }
         }
+    }
 
-        List<List<Point>> clusters = new ArrayList<>();
+    private static void kdTree(Points points, double[] centroidX, double[] centroidY, int[] labels) { // Lloyd with the filtering algorithm of Kanungo et al. over a k-d tree.
+        KdTree tree = new KdTree(points);
+        int numClusters = centroidX.length;
+        double[] sumX = new double[numClusters];
+        double[] sumY = new double[numClusters];
+        int[] count = new int[numClusters];
+        double[] lastX = new double[numClusters];
+        double[] lastY = new double[numClusters];
+        int[][] candidates = new int[tree.depth][numClusters]; // Candidate centroids at each tree level
         for (int i = 0; i < numClusters; i++) {
-            clusters.add(new ArrayList<>());
+            candidates[0][i] = i;
         }
 
         boolean converged = false;
         while (!converged) {
-            for (Point point : points) {
+            Arrays.fill(sumX, 0.0);
+            Arrays.fill(sumY, 0.0);
+            Arrays.fill(count, 0);
+            filter(tree, 0, candidates, 0, numClusters, centroidX, centroidY, sumX, sumY, count, null);
+            System.arraycopy(centroidX, 0, lastX, 0, numClusters);
+            System.arraycopy(centroidY, 0, lastY, 0, numClusters);
+            converged = !moveCentroids(sumX, sumY, count, centroidX, centroidY, null);
+        }
+        filter(tree, 0, candidates, 0, numClusters, lastX, lastY, sumX, sumY, count, labels); // Labels from the last assignment
+    }
+
+    private static void filter(KdTree tree, int node, int[][] candidates, int level, int numCandidates,
+                               double[] centroidX, double[] centroidY, double[] sumX, double[] sumY, int[] count, int[] labels) { // Assigns the points of a node among the candidate centroids, in index order.
+        int[] candidate = candidates[level];
+        if (tree.left[node] < 0) { // Leaf: same scan as Lloyd over the candidates left
+            for (int t = tree.from[node]; t < tree.to[node]; t++) {
                 double minDist = Double.MAX_VALUE;
                 int clusterIndex = 0;
-                for (int i = 0; i < centroids.size(); i++) {
-                    double dist = distance(point, centroids.get(i));
+                for (int c = 0; c < numCandidates; c++) {
+                    int i = candidate[c];
+                    double dist = distance(tree.x[t], tree.y[t], centroidX[i], centroidY[i]);
                     if (dist < minDist) {
                         minDist = dist;
                         clusterIndex = i;
                     }
                 }
-                clusters.get(clusterIndex).add(point);
+                sumX[clusterIndex] += tree.x[t];
+                sumY[clusterIndex] += tree.y[t];
+                count[clusterIndex]++;
+                if (labels != null) {
+                    labels[tree.order[t]] = clusterIndex;
+                }
             }
+            distanceCount += (long) (tree.to[node] - tree.from[node]) * numCandidates;
+            return;
+        }
 
-            List<Point> newCentroids = new ArrayList<>();
-            for (List<Point> cluster : clusters) {
-                Point newCentroid = calculateCentroid(cluster);
-                newCentroids.add(newCentroid);
+        double midX = 0.5 * (tree.minX[node] + tree.maxX[node]);
+        double midY = 0.5 * (tree.minY[node] + tree.maxY[node]);
+        int closest = candidate[0];
+        double minDist = Double.MAX_VALUE;
+        for (int c = 0; c < numCandidates; c++) { // Candidate closest to the middle of the box
+            int i = candidate[c];
+            double dist = distance(midX, midY, centroidX[i], centroidY[i]);
+            if (dist < minDist) {
+                minDist = dist;
+                closest = i;
             }
+        }
+        distanceCount += numCandidates;
+
+        int[] kept = candidates[level + 1];
+        int numKept = 0;
+        for (int c = 0; c < numCandidates; c++) { // Drop candidates farther than the closest one from every point of the box
+            int i = candidate[c];
+            if (i != closest) {
+                double cornerX = centroidX[i] > centroidX[closest] ? tree.maxX[node] : tree.minX[node]; // Corner of the box most in the direction of candidate i
+                double cornerY = centroidY[i] > centroidY[closest] ? tree.maxY[node] : tree.minY[node];
+                distanceCount += 2;
+                if (surelyCloser(distance(cornerX, cornerY, centroidX[closest], centroidY[closest]),
+                                 distance(cornerX, cornerY, centroidX[i], centroidY[i]))) {
+                    continue;
+                }
+            }
+            kept[numKept++] = i;
+        }
 
-            converged = true;
-            for (int i = 0; i < centroids.size(); i++) {
-                if (distance(centroids.get(i), newCentroids.get(i)) > 0.001) {
-                    converged = false;
-                    break;
+        if (numKept == 1) { // The whole box goes to one centroid
+            sumX[closest] += tree.sumX[node];
+            sumY[closest] += tree.sumY[node];
+            count[closest] += tree.to[node] - tree.from[node];
+            if (labels != null) {
+                for (int t = tree.from[node]; t < tree.to[node]; t++) {
+                    labels[tree.order[t]] = closest;
                 }
             }
+            return;
+        }
+        filter(tree, tree.left[node], candidates, level + 1, numKept, centroidX, centroidY, sumX, sumY, count, labels);
+        filter(tree, tree.right[node], candidates, level + 1, numKept, centroidX, centroidY, sumX, sumY, count, labels);
+    }
 
-            centroids = newCentroids;
+    private static boolean surelyCloser(double upper, double lower) { // True if a distance below upper is below every distance above lower, with room for rounding in the bounds
+        return upper * (1 + 1e-9) < lower;
+    }
 
-            if (!converged) {
-                for (List<Point> cluster : clusters) {
-                    cluster.clear();
+    private static void halfNearest(double[] centroidX, double[] centroidY, double[][] halfBetween, double[] half) { // Half the distances between centroids.
+        int numClusters = centroidX.length;
+        Arrays.fill(half, Double.MAX_VALUE);
+        for (int i = 0; i < numClusters; i++) {
+            for (int j = i + 1; j < numClusters; j++) {
+                double dist = 0.5 * distance(centroidX[i], centroidY[i], centroidX[j], centroidY[j]);
+                if (halfBetween != null) {
+                    halfBetween[i][j] = dist;
+                    halfBetween[j][i] = dist;
                 }
+                half[i] = Math.min(half[i], dist);
+                half[j] = Math.min(half[j], dist);
             }
         }
-        return clusters;
+        distanceCount += (long) numClusters * (numClusters - 1) / 2;
     }
 
-    private static Point calculateCentroid(List<Point> cluster) { // Calculate centroid.
-        double sumX = 0, sumY = 0;
-        for (Point p : cluster) {
-            sumX += p.x;
-            sumY += p.y;
+    private static void sumClusters(Points points, int[] labels, double[] sumX, double[] sumY, int[] count) { // Sums in point order, so every mode gets the same centroids.
+        Arrays.fill(sumX, 0.0);
+        Arrays.fill(sumY, 0.0);
+        Arrays.fill(count, 0);
+        for (int p = 0; p < points.size; p++) {
+            int c = labels[p];
+            sumX[c] += points.x[p];
+            sumY[c] += points.y[p];
+            count[c]++;
         }
-        return new Point("", sumX / cluster.size(), sumY / cluster.size(), true);
     }
 
-    private static double distance(Point p1, Point p2) { // Calculate distance.
-        return Math.sqrt((p1.x - p2.x) * (p1.x - p2.x) + (p1.y - p2.y) * (p1.y - p2.y));
+    private static void seed(Points points, int numClusters, Random rand, double[] centroidX, double[] centroidY) { // KMeans++ initialization
+        int n = points.size;
+        int first = rand.nextInt(n);
+        centroidX[0] = points.x[first];
+        centroidY[0] = points.y[first];
+
+        double[] minDist = new double[n]; // Distance from each point to its nearest centroid so far
+        Arrays.fill(minDist, Double.MAX_VALUE);
+        double[] distances = new double[n];
+        for (int i = 1; i < numClusters; i++) {
+            double totalDistance = 0.0;
+            for (int j = 0; j < n; j++) {
+                double dist = distance(points.x[j], points.y[j], centroidX[i - 1], centroidY[i - 1]);
+                if (dist < minDist[j]) {
+                    minDist[j] = dist;
+                }
+                distances[j] = minDist[j] * minDist[j]; // Square of distance
+                totalDistance += distances[j];
+            }
+
+            double randomValue = rand.nextDouble() * totalDistance;
+            double cumulativeDistance = 0.0;
+            int chosen = n - 1;
+            for (int j = 0; j < n; j++) {
+                cumulativeDistance += distances[j];
+                if (cumulativeDistance >= randomValue) {
+                    chosen = j;
+                    break;
+                }
+            }
+            centroidX[i] = points.x[chosen];
+            centroidY[i] = points.y[chosen];
+        }
+    }
+
+    private static boolean moveCentroids(double[] sumX, double[] sumY, int[] count, double[] centroidX, double[] centroidY, double[] shift) { // Calculate centroids in place, true if one moved more than 0.001. shift gets how far each moved.
+        boolean moved = false;
+        for (int i = 0; i < centroidX.length; i++) {
+            if (count[i] == 0) {
+                if (shift != null) {
+                    shift[i] = 0;
+                }
+                continue; // An empty cluster keeps its centroid
+            }
+            double newX = sumX[i] / count[i];
+            double newY = sumY[i] / count[i];
+            double dist = distance(centroidX[i], centroidY[i], newX, newY);
+            if (shift != null) {
+                shift[i] = dist;
+            }
+            if (dist > 0.001) {
+                moved = true;
+            }
+            centroidX[i] = newX;
+            centroidY[i] = newY;
+        }
+        return moved;
+    }
+
+    private static List<List<String>> clusters(Points points, int[] labels, int numClusters) { // Cluster lists for output.
+        List<List<String>> clusters = new ArrayList<>();
+        for (int i = 0; i < numClusters; i++) {
+            clusters.add(new ArrayList<>());
+        }
+        for (int p = 0; p < points.size; p++) {
+            clusters.get(labels[p]).add(points.names[p]);
+        }
+        return clusters;
+    }
+
+    private static double distance(double x1, double y1, double x2, double y2) { // Calculate distance.
+        return Math.sqrt((x1 - x2) * (x1 - x2) + (y1 - y2) * (y1 - y2));
     }
 }
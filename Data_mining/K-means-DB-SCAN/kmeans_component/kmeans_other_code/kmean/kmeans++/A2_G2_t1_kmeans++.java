@@ -7,6 +7,9 @@ import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import java.io.BufferedWriter;
 class Point {
     String name;
@@ -99,29 +102,37 @@ for (int i = 0; i < numClusters - 1; i++) {
         boolean converged = false;
         while (!converged) {
             // Assign points to the nearest centroid
-            for (Point point : points) {
-                double minDist = Double.MAX_VALUE;
-                int clusterIndex = 0;
-                for (int i = 0; i < centroids.size(); i++) {
-                    double dist = distance(point, centroids.get(i));
-                    if (dist < minDist) {
-                        minDist = dist;
-                        clusterIndex = i;
+            List<Point> blockCentroids = null; // With -Dthreads the pool assigns the points and the centroids come from the block sums
+            if (POOL != null) {
+                blockCentroids = assignParallel(points, centroids, clusters);
+            } else {
+                for (Point point : points) {
+                    double minDist = Double.MAX_VALUE;
+                    int clusterIndex = 0;
+                    for (int i = 0; i < centroids.size(); i++) {
+                        double dist = distance(point, centroids.get(i));
+                        if (dist < minDist) {
+                            minDist = dist;
+                            clusterIndex = i;
+                        }
                     }
+                    clusters.get(clusterIndex).add(point);
                 }
-                clusters.get(clusterIndex).add(point);
             }
 
             //센트로이드 업데이트
-            List<Point> newCentroids = new ArrayList<>();
-            for (List<Point> cluster : clusters) {
-                double sumX = 0, sumY = 0;
-                for (Point p : cluster) {
-                    sumX += p.x;
-                    sumY += p.y;
+            List<Point> newCentroids = blockCentroids;
+            if (newCentroids == null) {
+                newCentroids = new ArrayList<>();
+                for (List<Point> cluster : clusters) {
+                    double sumX = 0, sumY = 0;
+                    for (Point p : cluster) {
+                        sumX += p.x;
+                        sumY += p.y;
+                    }
+                    Point newCentroid = new Point("", sumX / cluster.size(), sumY / cluster.size(), true);
+                    newCentroids.add(newCentroid);
                 }
-                Point newCentroid = new Point("", sumX / cluster.size(), sumY / cluster.size(), true);
-                newCentroids.add(newCentroid);
             }
 
             // 센트로이드가 수렴하는지 확인
@@ -144,6 +155,67 @@ for (int i = 0; i < numClusters - 1; i++) {
         return clusters;
     }
 
+    private static final ForkJoinPool POOL = pool(System.getProperty("threads"));
+    private static final int BLOCK = 1 << 14; // Points per block, fixed so the result does not depend on the number of threads
+
+    private static ForkJoinPool pool(String threads) { // -Dthreads=N assigns the points on N threads, without it or with an invalid value the loop stays serial
+        if (threads == null) {
+            return null;
+        }
+        if (!threads.matches("[1-9]\\d{0,8}")) {
+            System.err.println("Invalid -Dthreads=" + threads + ", assigning the points serially");
+            return null;
+        }
+        return new ForkJoinPool(Integer.parseInt(threads));
+    }
+
+    private static List<Point> assignParallel(List<Point> points, List<Point> centroids, List<List<Point>> clusters) { // Assigns blocks of points on the pool, each block sums its own clusters and the sums are added in block order
+        int numClusters = clusters.size();
+        int blocks = (points.size() + BLOCK - 1) / BLOCK;
+        int[] labels = new int[points.size()];
+        double[][] sumX = new double[blocks][numClusters];
+        double[][] sumY = new double[blocks][numClusters];
+        int[][] count = new int[blocks][numClusters];
+        try {
+            POOL.submit(() -> IntStream.range(0, blocks).parallel().forEach(b -> {
+                for (int p = b * BLOCK; p < Math.min(points.size(), (b + 1) * BLOCK); p++) {
+                    Point point = points.get(p);
+                    double minDist = Double.MAX_VALUE;
+                    int clusterIndex = 0;
+                    for (int i = 0; i < centroids.size(); i++) {
+                        double dist = distance(point, centroids.get(i));
+                        if (dist < minDist) {
+                            minDist = dist;
+                            clusterIndex = i;
+                        }
+                    }
+                    labels[p] = clusterIndex;
+                    sumX[b][clusterIndex] += point.x;
+                    sumY[b][clusterIndex] += point.y;
+                    count[b][clusterIndex]++;
+                }
+            })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (int p = 0; p < labels.length; p++) {
+            clusters.get(labels[p]).add(points.get(p));
+        }
+        List<Point> newCentroids = new ArrayList<>();
+        for (int i = 0; i < numClusters; i++) {
+            double x = 0, y = 0;
+            int n = 0;
+            for (int b = 0; b < blocks; b++) {
+                x += sumX[b][i];
+                y += sumY[b][i];
+                n += count[b][i];
+            }
+            newCentroids.add(new Point("", x / n, y / n, true));
+        }
+        return newCentroids;
+    }
+
     private static double distance(Point p1, Point p2) {
         return Math.sqrt(  (p1.x - p2.x)*(p1.x - p2.x) + (p1.y - p2.y) * (p1.y - p2.y) );
     }//거리 계산해 주는 함수
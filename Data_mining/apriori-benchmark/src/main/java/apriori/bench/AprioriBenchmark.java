@@ -0,0 +1,310 @@
+package apriori.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the stages and engines of Main in ../Apriori_algorithm.java on a QuestGenerator file.
+ * Main lives in the default package, so it is reached through method handles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AprioriBenchmark {
+    private static final MethodHandle READ_CSV;
+    private static final MethodHandle MAKE_FIRST;
+    private static final MethodHandle FILTER;
+    private static final MethodHandle APRIORI_GEN;
+    private static final MethodHandle COMBINATION;
+    private static final MethodHandle COUNTING;
+    private static final MethodHandle REDUCE;
+    private static final MethodHandle APRIORI;
+    private static final MethodHandle ECLAT;
+    private static final MethodHandle FP_GROWTH;
+    private static final MethodHandle CLOSED;
+    private static final MethodHandle MAXIMAL;
+    private static final MethodHandle TOP_K;
+    private static final MethodHandle SON;
+    private static final MethodHandle TOIVONEN;
+    private static final MethodHandle INCREMENTAL;
+    private static final MethodHandle RULES;
+    private static final MethodHandle COUNT_AT_LEAST;
+    private static final MethodHandle SET_THREADS;
+    private static final MethodHandle ITEM_NAMES;
+    private static final MethodHandle ITEM_IDS;
+    private static final Constructor<?> BASKETS;
+    private static final Constructor<?> SUPPORT_INDEX;
+
+    static {
+        try {
+            Class<?> main = Class.forName("Main");
+            Class<?> baskets = Class.forName("Baskets");
+            Class<?> supportIndex = Class.forName("SupportIndex");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodType engine = MethodType.methodType(void.class, List.class, double.class, Map.class);
+            READ_CSV = lookup.findStatic(main, "readCSV", MethodType.methodType(List.class, String.class));
+            MAKE_FIRST = lookup.findStatic(main, "Make_First", MethodType.methodType(HashMap.class, List.class));
+            FILTER = lookup.findStatic(main, "Filter", MethodType.methodType(HashMap.class, HashMap.class, double.class));
+            APRIORI_GEN = lookup.findStatic(main, "Apriori_Gen", MethodType.methodType(List.class, Set.class, int.class));
+            COMBINATION = lookup.findStatic(main, "Combination", MethodType.methodType(HashMap.class, HashMap.class, int.class, baskets, double.class));
+            COUNTING = lookup.findStatic(main, "Counting", MethodType.methodType(int[].class, List.class, List.class));
+            REDUCE = lookup.findStatic(main, "Reduce", MethodType.methodType(baskets, baskets, Set.class, int.class));
+            APRIORI = lookup.findStatic(main, "Apriori", engine);
+            ECLAT = lookup.findStatic(main, "Eclat", engine);
+            FP_GROWTH = lookup.findStatic(main, "FP_Growth", engine);
+            CLOSED = lookup.findStatic(main, "Closed", engine);
+            MAXIMAL = lookup.findStatic(main, "Maximal", engine);
+            TOP_K = lookup.findStatic(main, "Top_K", MethodType.methodType(void.class, List.class, int.class, int.class, double.class, Map.class));
+            SON = lookup.findStatic(main, "SON", MethodType.methodType(int.class, String.class, double.class, long.class, Map.class));
+            TOIVONEN = lookup.findStatic(main, "Toivonen", MethodType.methodType(boolean.class, List.class, double.class, double.class, double.class, long.class, Map.class));
+            INCREMENTAL = lookup.findStatic(main, "Incremental", MethodType.methodType(int.class, String.class, double.class, String.class, long.class, Map.class));
+            RULES = lookup.findStatic(main, "Rules", MethodType.methodType(List.class, Map.class, int.class, double.class, double.class, double.class));
+            SET_THREADS = lookup.findStaticSetter(main, "threads", int.class);
+            ITEM_NAMES = lookup.findStaticGetter(main, "itemNames", List.class);
+            ITEM_IDS = lookup.findStaticGetter(main, "itemIds", HashMap.class);
+            BASKETS = baskets.getDeclaredConstructor(List.class, int[].class, boolean.class);
+            BASKETS.setAccessible(true);
+            SUPPORT_INDEX = supportIndex.getDeclaredConstructor(Map.class);
+            SUPPORT_INDEX.setAccessible(true);
+            Method countAtLeast = supportIndex.getDeclaredMethod("Count_At_Least", double.class);
+            countAtLeast.setAccessible(true);
+            COUNT_AT_LEAST = MethodHandles.lookup().unreflect(countAtLeast);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"100000"})
+    public int transactions;
+
+    @Param({"10"})
+    public double width;
+
+    @Param({"1000"})
+    public int items;
+
+    @Param({"0.5"})
+    public double correlation;
+
+    @Param({"0.005"})
+    public double minsup;
+
+    @Param({"1"})
+    public int threads;//Main.threads, more than one counts the Apriori levels on the fork-join pool
+
+    @Param({"0.5"})
+    public double confidence;//Minimum confidence of the rules benchmark
+
+    private Path file;
+    private List<int[]> itemList;
+    private double minSupport;
+    private HashMap<?, ?> firstLevel;//Frequent single items
+    private Object baskets;//Transactions reduced for level 2
+    private List<int[]> secondCandidates;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        file = Files.createTempFile("quest-", ".csv");
+        QuestGenerator generator = new QuestGenerator();
+        generator.transactions = transactions;
+        generator.width = width;
+        generator.items = items;
+        generator.correlation = correlation;
+        generator.Write(file);
+
+        SET_THREADS.invoke(threads);
+        itemList = Read_CSV();
+        minSupport = itemList.size() * minsup;
+        firstLevel = (HashMap<?, ?>) FILTER.invoke((HashMap<?, ?>) MAKE_FIRST.invoke(itemList), minSupport);
+        baskets = REDUCE.invoke(BASKETS.newInstance(itemList, null, true), firstLevel.keySet(), 2);
+        secondCandidates = Apriori_Gen();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<int[]> Read_CSV() throws Throwable {
+        return (List<int[]>) READ_CSV.invoke(file.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<int[]> Apriori_Gen() throws Throwable {
+        return (List<int[]>) APRIORI_GEN.invoke(firstLevel.keySet(), 1);
+    }
+
+    @Benchmark
+    public Object readCSV() throws Throwable {
+        return Read_CSV();
+    }
+
+    @Benchmark
+    public Object makeFirst() throws Throwable {
+        return MAKE_FIRST.invoke(itemList);
+    }
+
+    @Benchmark
+    public Object combination() throws Throwable {//Level 2 from the frequent items: join, DHP filter and counting
+        return COMBINATION.invoke(new HashMap<>(firstLevel), 1, baskets, minSupport);
+    }
+
+    @Benchmark
+    public Object counting() throws Throwable {//Only the trie counting of the level 2 candidates
+        return (int[]) COUNTING.invoke(secondCandidates, itemList);
+    }
+
+    @Benchmark
+    public Object apriori() throws Throwable {
+        return Engine(APRIORI);
+    }
+
+    @Benchmark
+    public Object eclat() throws Throwable {
+        return Engine(ECLAT);
+    }
+
+    @Benchmark
+    public Object fpGrowth() throws Throwable {
+        return Engine(FP_GROWTH);
+    }
+
+    @Benchmark
+    public Object closed() throws Throwable {
+        return Engine(CLOSED);
+    }
+
+    @Benchmark
+    public Object maximal() throws Throwable {
+        return Engine(MAXIMAL);
+    }
+
+    @Benchmark
+    public Object topK() throws Throwable {
+        Map<Object, Object> result = new HashMap<>();
+        TOP_K.invoke(itemList, 1000, 1, 1.0, result);
+        return result;
+    }
+
+    @Benchmark
+    public Object son() throws Throwable {//Both passes over the memory-mapped file
+        Map<Object, Object> result = new HashMap<>();
+        SON.invoke(file.toString(), minsup, 64L << 20, result);
+        return result;
+    }
+
+    @Benchmark
+    public Object sample() throws Throwable {//Toivonen: a 10% sample at 0.8 times minsup, then one verifying pass
+        Map<Object, Object> result = new HashMap<>();
+        TOIVONEN.invoke(itemList, minsup, 0.1, 0.8, 1L, result);
+        return result;
+    }
+
+    @Benchmark
+    public Object incremental(Update update) throws Throwable {//FUP: the state of the first 90% of the file is updated with the last 10%
+        Map<Object, Object> result = new HashMap<>();
+        INCREMENTAL.invoke(update.grown.toString(), minsup, update.state.toString(), 64L << 20, result);
+        return result;
+    }
+
+    @Benchmark
+    public long sweep() throws Throwable {//Mine once at minsup, index by support, then answer four higher thresholds like the sweep mode
+        Map<Object, Object> result = new HashMap<>();
+        FP_GROWTH.invoke(itemList, minSupport, result);
+        Object index = SUPPORT_INDEX.newInstance(result);
+        long answers = 0;
+        for (int factor = 1; factor <= 8; factor *= 2) answers += (int) COUNT_AT_LEAST.invoke(index, minSupport * factor);
+        return answers;
+    }
+
+    @Benchmark
+    public Object rules(Mined mined) throws Throwable {//Rules of every frequent itemset at the confidence parameter
+        return RULES.invoke(mined.frequent, itemList.size(), confidence, 0.0, -1.0);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Mined {//Frequent itemsets of the file, mined once for the rules benchmark
+        Map<Object, Object> frequent;
+
+        @Setup(Level.Trial)
+        public void setUp(AprioriBenchmark benchmark) throws Throwable {
+            frequent = new HashMap<>();
+            FP_GROWTH.invoke(benchmark.itemList, benchmark.minSupport, frequent);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Update {//grown is the benchmark file, base is the FUP state of its first 90% and state a fresh copy of it for every call
+        Path grown;
+        Path base;
+        Path state;
+
+        @Setup(Level.Trial)
+        public void setUp(AprioriBenchmark benchmark) throws Throwable {
+            List<String> lines = Files.readAllLines(benchmark.file);
+            int old = lines.size() * 9 / 10;
+            grown = Files.createTempFile("quest-grown-", ".csv");
+            base = Files.createTempFile("fup-base-", ".state");
+            state = Files.createTempFile("fup-", ".state");
+            Files.write(grown, lines.subList(0, old));
+            Files.delete(base);//No state yet, so the first run mines the whole file
+            Clear_Items();
+            INCREMENTAL.invoke(grown.toString(), benchmark.minsup, base.toString(), 64L << 20, new HashMap<>());
+            Files.write(grown, lines.subList(old, lines.size()), StandardOpenOption.APPEND);
+        }
+
+        @Setup(Level.Invocation)
+        public void restore() throws Throwable {//Every call starts from the old state, and the state holds the item dictionary itself
+            Files.copy(base, state, StandardCopyOption.REPLACE_EXISTING);
+            Clear_Items();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            Files.deleteIfExists(grown);
+            Files.deleteIfExists(base);
+            Files.deleteIfExists(state);
+        }
+
+        private static void Clear_Items() throws Throwable {
+            ((List<?>) ITEM_NAMES.invoke()).clear();
+            ((Map<?, ?>) ITEM_IDS.invoke()).clear();
+        }
+    }
+
+    private Object Engine(MethodHandle engine) throws Throwable {
+        Map<Object, Object> result = new HashMap<>();
+        engine.invoke(itemList, minSupport, result);
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package apriori.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class QuestGenerator {//Synthetic baskets in the style of the IBM Quest generator: transactions are made of corrupted copies of weighted patterns
+    int transactions = 100_000;
+    double width = 10;//Average items per transaction
+    int items = 1_000;
+    int patterns = 2_000;
+    double patternLength = 4;//Average items per pattern
+    double correlation = 0.5;//Average fraction of a pattern taken from the previous pattern
+    long seed = 1;
+
+    public static void main(String[] args) throws IOException {//--transactions --width --items --patterns --pattern-length --correlation --seed --out
+        QuestGenerator generator = new QuestGenerator();
+        String out = "quest.csv";
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            if (pair.length != 2) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            switch (pair[0]) {
+                case "transactions": generator.transactions = Integer.parseInt(pair[1]); break;
+                case "width": generator.width = Double.parseDouble(pair[1]); break;
+                case "items": generator.items = Integer.parseInt(pair[1]); break;
+                case "patterns": generator.patterns = Integer.parseInt(pair[1]); break;
+                case "pattern-length": generator.patternLength = Double.parseDouble(pair[1]); break;
+                case "correlation": generator.correlation = Double.parseDouble(pair[1]); break;
+                case "seed": generator.seed = Long.parseLong(pair[1]); break;
+                case "out": out = pair[1]; break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        generator.Write(Paths.get(out));
+    }
+
+    void Write(Path file) throws IOException {//Same parameters and seed always give the same file
+        Random random = new Random(seed);
+        int[][] pool = new int[patterns][];
+        double[] weights = new double[patterns];//Cumulative pattern weights
+        double[] corruption = new double[patterns];//Chance to drop each further item of the pattern
+        double weightSum = 0;
+        int[] previous = new int[0];
+        for (int p = 0; p < patterns; p++) {
+            int size = Math.max(1, Poisson(random, patternLength - 1) + 1);
+            int fromPrevious = Math.min(previous.length, (int) Math.round(size * Math.min(1, Exponential(random, correlation))));
+            int[] pattern = new int[size];
+            int filled = 0;
+            int[] shuffled = previous.clone();
+            Shuffle(random, shuffled);
+            for (int i = 0; i < fromPrevious; i++) pattern[filled++] = shuffled[i];
+            while (filled < size) {
+                int item = random.nextInt(items);
+                if (!Has(pattern, filled, item)) pattern[filled++] = item;
+                if (filled >= items) break;
+            }
+            pool[p] = Arrays.copyOf(pattern, filled);
+            previous = pool[p];
+            weightSum += Exponential(random, 1);
+            weights[p] = weightSum;
+            corruption[p] = Math.min(1, Math.max(0, 0.5 + 0.1 * random.nextGaussian()));
+        }
+
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            List<Integer> basket = new ArrayList<>();
+            int[] carried = null;//A pattern that did not fit goes to the next transaction
+            StringBuilder line = new StringBuilder();
+            for (int t = 0; t < transactions; t++) {
+                int size = Math.min(items, Math.max(1, Poisson(random, width - 1) + 1));//Never more than there are items, or the basket could not be filled
+                basket.clear();
+                while (basket.size() < size) {
+                    int[] pattern = carried;
+                    carried = null;
+                    if (pattern == null) {//Pick a pattern by weight and corrupt it by dropping random items
+                        int p = Arrays.binarySearch(weights, random.nextDouble() * weightSum);
+                        p = Math.min(patterns - 1, p < 0 ? -p - 1 : p);
+                        pattern = pool[p].clone();
+                        int length = pattern.length;
+                        while (length > 0 && random.nextDouble() < corruption[p]) {
+                            int drop = random.nextInt(length);
+                            pattern[drop] = pattern[--length];
+                        }
+                        pattern = Arrays.copyOf(pattern, length);
+                    }
+                    if (basket.size() + pattern.length > size && !basket.isEmpty()) {//Too big: half of the time it is added anyway, otherwise it starts the next transaction
+                        if (random.nextBoolean()) Add_All(basket, pattern);
+                        else carried = pattern;
+                        break;
+                    }
+                    Add_All(basket, pattern);
+                    if (pattern.length == 0) Add_All(basket, new int[]{random.nextInt(items)});
+                }
+                line.setLength(0);
+                for (int item : basket) {
+                    if (line.length() > 0) line.append(',');
+                    line.append('i').append(item);
+                }
+                out.write(line.toString());
+                out.newLine();
+            }
+        }
+    }
+
+    private static void Add_All(List<Integer> basket, int[] pattern) {
+        for (int item : pattern) {
+            if (!basket.contains(item)) basket.add(item);
+        }
+    }
+
+    private static int Poisson(Random random, double mean) {
+        double limit = Math.exp(-Math.max(mean, 0)), product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            count++;
+        }
+        return count;
+    }
+
+    private static double Exponential(Random random, double mean) {
+        return -mean * Math.log(1 - random.nextDouble());
+    }
+
+    private static void Shuffle(Random random, int[] array) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = array[i];
+            array[i] = array[j];
+            array[j] = temp;
+        }
+    }
+
+    private static boolean Has(int[] array, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (array[i] == value) return true;
+        }
+        return false;
+    }
+}